@@ -0,0 +1,276 @@
+package jenkins.plugins.http_request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import jenkins.plugins.http_request.auth.BasicDigestAuthentication;
+import jenkins.plugins.http_request.util.BodyDigest;
+import jenkins.plugins.http_request.util.HttpClientUtil;
+import jenkins.plugins.http_request.util.HttpRequestFormDataPart;
+import jenkins.plugins.http_request.util.HttpRequestNameValuePair;
+import jenkins.plugins.http_request.util.RequestAction;
+import jenkins.plugins.http_request.util.RequestDeadline;
+import jenkins.plugins.http_request.util.RequestTimeouts;
+import jenkins.plugins.http_request.util.ResponseCodeMatcher;
+import jenkins.plugins.http_request.util.ResponseContentMatcher;
+import jenkins.plugins.http_request.util.ResumableDownload;
+import jenkins.plugins.http_request.util.SSLSocketFactoryCache;
+import jenkins.security.MasterToSlaveCallable;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.SystemDefaultHttpClient;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Sends a request from the agent of the workspace, so uploaded and downloaded
+ * files don't go through the controller. Only the status, the headers and the
+ * body, bounded also when it is read back from the output file, come back to the
+ * controller, which validates them as those of a request it sent itself.
+ * <p>
+ * The agent has none of the controller state: the request uses its own
+ * connections, the JVM trust store of the agent unless all certificates are
+ * trusted, and no response cache or circuit breaker.
+ */
+class AgentRequestCallable extends MasterToSlaveCallable<ResponseContentSupplier, IOException> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final TaskListener listener;
+    private final URL url;
+    private final HttpMode mode;
+    private final String requestBody;
+    private final ArrayList<HttpRequestNameValuePair> params;
+    private final ArrayList<HttpRequestNameValuePair> headers;
+    private final FilePath uploadFile;
+    private final ArrayList<HttpRequestFormDataPart> formData;
+    private final FilePath workspace;
+    private final boolean compressRequestBody;
+    private final RequestTimeouts timeouts;
+    private final boolean trustAllCertificates;
+    private final String authenticationKeyName;
+    private final String userName;
+    private final String password;
+    private final FilePath outputFile;
+    private final String validResponseCodes;
+    private final String validResponseContent;
+    private final String invalidResponseContent;
+    private final String validResponsePatterns;
+    private final boolean readOutputFile;
+    private final long maxContentSize;
+    private final int maxResumes;
+    private final int downloadSegments;
+    private final DigestAlgorithm digestAlgorithm;
+
+    /**
+     * @param authentication may be null
+     * @param outputFile where the body is written on the agent, may be null to send it back instead
+     * @param validResponseCodes the body of a response with another status is sent back instead
+     * @param validResponseContent checked as the body is written to the output file, may be null
+     * @param invalidResponseContent checked as the body is written to the output file, may be null
+     * @param validResponsePatterns checked as the body is written to the output file, may be null
+     * @param readOutputFile whether the body written to the output file is sent back too, when not above maxContentSize
+     * @param maxContentSize bytes of a body sent back above which the request fails, or the output file isn't read
+     * back, 0 for no limit
+     * @param maxResumes how many times the download to the output file is resumed, 0 when it isn't resumable
+     * @param downloadSegments how many ranges of the output file are downloaded at once
+     * @param digestAlgorithm of the digests of the request body and of the output file
+     */
+    AgentRequestCallable(TaskListener listener, RequestAction requestAction, FilePath workspace,
+            boolean compressRequestBody, RequestTimeouts timeouts, boolean trustAllCertificates,
+            BasicDigestAuthentication authentication, FilePath outputFile, String validResponseCodes,
+            String validResponseContent, String invalidResponseContent, String validResponsePatterns,
+            boolean readOutputFile, long maxContentSize,
+            int maxResumes, int downloadSegments, DigestAlgorithm digestAlgorithm) {
+        this.listener = listener;
+        this.url = requestAction.getUrl();
+        this.mode = requestAction.getMode();
+        this.requestBody = requestAction.getRequestBody();
+        this.params = new ArrayList<>(requestAction.getParams());
+        this.headers = new ArrayList<>(requestAction.getHeaders());
+        this.uploadFile = requestAction.getUploadFile();
+        this.formData = new ArrayList<>(requestAction.getFormData());
+        this.workspace = workspace;
+        this.compressRequestBody = compressRequestBody;
+        this.timeouts = timeouts;
+        this.trustAllCertificates = trustAllCertificates;
+        // the authentication isn't serializable, it is created again on the agent
+        this.authenticationKeyName = authentication == null ? null : authentication.getKeyName();
+        this.userName = authentication == null ? null : authentication.getUserName();
+        this.password = authentication == null ? null : authentication.getPassword();
+        this.outputFile = outputFile;
+        this.validResponseCodes = validResponseCodes;
+        this.validResponseContent = validResponseContent;
+        this.invalidResponseContent = invalidResponseContent;
+        this.validResponsePatterns = validResponsePatterns;
+        this.readOutputFile = readOutputFile;
+        this.maxContentSize = maxContentSize;
+        this.maxResumes = maxResumes;
+        this.downloadSegments = downloadSegments;
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    @Override
+    public ResponseContentSupplier call() throws IOException {
+        final PrintStream logger = listener.getLogger();
+        RequestAction requestAction = new RequestAction(url, mode, requestBody, params, headers, uploadFile);
+        if (!formData.isEmpty()) {
+            requestAction.setFormData(formData, workspace);
+        }
+
+        final HttpClientUtil clientUtil = new HttpClientUtil();
+        HttpRequestBase request = clientUtil.createRequestBase(requestAction);
+        ResumableDownload download = outputFile != null && (maxResumes > 0 || downloadSegments > 1)
+                ? new ResumableDownload(outputFile, HttpRequest.getPartFile(outputFile), maxResumes, downloadSegments, logger)
+                : null;
+        BodyDigest.DigestingEntity uploadDigest = digestAlgorithm == DigestAlgorithm.NONE
+                ? null : BodyDigest.digestRequestBody(request, digestAlgorithm);
+        if (compressRequestBody) {
+            clientUtil.compressRequestBody(request);
+        }
+
+        // the Jenkins timer only runs on the controller
+        ScheduledExecutorService scheduler = timeouts.getTotalTimeout() > 0 ? Executors.newSingleThreadScheduledExecutor() : null;
+        RequestDeadline deadline = RequestDeadline.start(timeouts.getTotalTimeout(), scheduler);
+        final DefaultHttpClient client = new SystemDefaultHttpClient();
+        try {
+            deadline.watch(request);
+            if (download != null) {
+                download.prepare(request);
+                download.setDigestAlgorithm(digestAlgorithm);
+            } else if (outputFile != null && digestAlgorithm != DigestAlgorithm.NONE) {
+                // the digests sent by the server are of the body as it is sent
+                request.setHeader("Accept-Encoding", "identity");
+            }
+            client.getConnectionManager().getSchemeRegistry().register(new Scheme("https", 443,
+                    SSLSocketFactoryCache.get(trustAllCertificates, null, null)));
+            clientUtil.acceptCompressedResponses(client, request);
+
+            final HttpContext context = new BasicHttpContext();
+            if (authenticationKeyName != null) {
+                new BasicDigestAuthentication(authenticationKeyName, userName, password)
+                        .authenticate(client, context, request, logger, null);
+            }
+
+            HttpResponse response = clientUtil.execute(client, context, request, logger, timeouts);
+            if (download != null) {
+                response = download.transfer(request, response, new ResumableDownload.Sender() {
+                    @Override
+                    public HttpResponse send(HttpRequestBase request) throws IOException, InterruptedException {
+                        return clientUtil.execute(client, new BasicHttpContext(context), request, logger, timeouts);
+                    }
+                }, ResponseCodeMatcher.compile(validResponseCodes));
+                if (download.isWritten()) {
+                    ResponseContentSupplier responseContentSupplier = new ResponseContentSupplier(response, download,
+                            false, createContentMatcher());
+                    readOutputFile(responseContentSupplier, response, download.getCompletedFile(), logger);
+                    return withUploadDigest(responseContentSupplier, uploadDigest);
+                }
+            } else if (outputFile != null && ResponseCodeMatcher.compile(validResponseCodes).matches(response.getStatusLine().getStatusCode())) {
+                // moved into the output file by the controller once the response is validated
+                FilePath partFile = HttpRequest.getPartFile(outputFile);
+                ResponseContentSupplier responseContentSupplier = new ResponseContentSupplier(response, partFile, false,
+                        digestAlgorithm == DigestAlgorithm.NONE ? null : digestAlgorithm.createDigest(),
+                        createContentMatcher());
+                readOutputFile(responseContentSupplier, response, partFile, logger);
+                return withUploadDigest(responseContentSupplier, uploadDigest);
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity != null) {
+                ByteArrayEntity content = new ByteArrayEntity(readContent(request, entity));
+                content.setContentType(entity.getContentType());
+                response.setEntity(content);
+            }
+            return withUploadDigest(new ResponseContentSupplier(response), uploadDigest);
+        } catch (IOException e) {
+            if (deadline.isExpired()) {
+                throw new AbortException(deadline.getMessage());
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            request.abort();
+            throw new AbortException("Interrupted while sending the request from the agent");
+        } finally {
+            deadline.cancel();
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    /**
+     * @return the matcher checking the body written to the output file, null when nothing is checked
+     */
+    private ResponseContentMatcher createContentMatcher() throws AbortException {
+        ResponseContentMatcher matcher = HttpRequest.createContentMatcher(validResponseContent,
+                invalidResponseContent, validResponsePatterns);
+        return matcher.isEmpty() ? null : matcher;
+    }
+
+    /**
+     * Reads the body written to the file back into the response, unless it is larger than sent back bodies may be.
+     */
+    private void readOutputFile(ResponseContentSupplier responseContentSupplier, HttpResponse response, FilePath file,
+            PrintStream logger) throws IOException, InterruptedException {
+        if (!readOutputFile || response.getEntity() == null) {
+            return;
+        }
+        if (maxContentSize > 0 && file.length() > maxContentSize) {
+            logger.println("The response body is larger than " + maxContentSize
+                    + " bytes, it is kept in the output file on the agent only");
+            return;
+        }
+        responseContentSupplier.readOutputFile(file, response.getEntity());
+    }
+
+    private static ResponseContentSupplier withUploadDigest(ResponseContentSupplier responseContentSupplier,
+            BodyDigest.DigestingEntity uploadDigest) {
+        if (uploadDigest != null) {
+            responseContentSupplier.setUploadDigest(uploadDigest.getDigest());
+        }
+        return responseContentSupplier;
+    }
+
+    private byte[] readContent(HttpRequestBase request, HttpEntity entity) throws IOException {
+        if (maxContentSize > 0 && entity.getContentLength() > maxContentSize) {
+            request.abort();
+            throw contentTooLarge();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = entity.getContent()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                if (maxContentSize > 0 && out.size() > maxContentSize) {
+                    // closing the stream would read the rest of the body
+                    request.abort();
+                    throw contentTooLarge();
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private AbortException contentTooLarge() {
+        return new AbortException("Fail: the response body is larger than " + maxContentSize
+                + " bytes, set an output file to keep it on the agent");
+    }
+}
@@ -0,0 +1,56 @@
+package jenkins.plugins.http_request;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import hudson.util.ListBoxModel;
+
+/**
+ * Algorithm of the digests computed while the bodies are streamed.
+ */
+public enum DigestAlgorithm {
+
+    NONE(null, null),
+    SHA_256("SHA-256", "SHA-256"),
+    SHA_1("SHA-1", "SHA"),
+    MD5("MD5", "MD5");
+
+    private final String algorithm;
+    private final String headerName;
+
+    DigestAlgorithm(String algorithm, String headerName) {
+        this.algorithm = algorithm;
+        this.headerName = headerName;
+    }
+
+    /**
+     * @return the name of the algorithm in Java, null for {@link #NONE}
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return the name of the algorithm in a {@code Digest} header, null for {@link #NONE}
+     */
+    public String getHeaderName() {
+        return headerName;
+    }
+
+    public MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has these
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static ListBoxModel getFillItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (DigestAlgorithm digestAlgorithm : values()) {
+            items.add(digestAlgorithm.name());
+        }
+        return items;
+    }
+}
@@ -0,0 +1,41 @@
+package jenkins.plugins.http_request;
+
+import hudson.util.ListBoxModel;
+
+/**
+ * HTTP version a request is sent with.
+ */
+public enum HttpProtocol {
+
+    /**
+     * The global default.
+     */
+    NOT_SET,
+    HTTP_1_1,
+    /**
+     * HTTP/2 negotiated over TLS, HTTP/1.1 when the server doesn't offer it.
+     */
+    HTTP_2,
+    /**
+     * As {@link #HTTP_2}, and HTTP/2 without negotiation for plain http urls.
+     */
+    H2C;
+
+    public static ListBoxModel getFillItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (HttpProtocol protocol : values()) {
+            items.add(protocol.name());
+        }
+        return items;
+    }
+
+    public static ListBoxModel getDefaultFillItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (HttpProtocol protocol : values()) {
+            if (protocol != NOT_SET) {
+                items.add(protocol.name());
+            }
+        }
+        return items;
+    }
+}
@@ -13,8 +13,10 @@ import hudson.init.InitMilestone;
 import hudson.init.Initializer;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.model.AutoCompletionCandidates;
 import hudson.model.BuildListener;
 import hudson.model.Items;
+import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
@@ -24,33 +26,53 @@ import hudson.util.VariableResolver;
 import jenkins.plugins.http_request.auth.Authenticator;
 import jenkins.plugins.http_request.auth.BasicDigestAuthentication;
 import jenkins.plugins.http_request.auth.FormAuthentication;
+import jenkins.plugins.http_request.util.BodyDigest;
+import jenkins.plugins.http_request.util.Http2Transport;
 import jenkins.plugins.http_request.util.HttpClientUtil;
+import jenkins.plugins.http_request.util.HttpRequestFormDataPart;
 import jenkins.plugins.http_request.util.HttpRequestNameValuePair;
+import jenkins.plugins.http_request.util.HttpResponseCache;
 import jenkins.plugins.http_request.util.RequestAction;
+import jenkins.plugins.http_request.util.RequestDeadline;
+import jenkins.plugins.http_request.util.RequestTimeouts;
+import jenkins.plugins.http_request.util.ResponseCodeMatcher;
+import jenkins.plugins.http_request.util.ResponseContentMatcher;
+import jenkins.plugins.http_request.util.ResumableDownload;
+import jenkins.plugins.http_request.util.RetryPolicy;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.SystemDefaultHttpClient;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -59,19 +81,40 @@ import static com.google.common.base.Preconditions.checkArgument;
  */
 public class HttpRequest extends Builder {
 
+    private static final String PART_SUFFIX = ".part";
+
     private @Nonnull String url;
     private HttpMode httpMode                 = DescriptorImpl.httpMode;
     private Boolean passBuildParameters       = DescriptorImpl.passBuildParameters;
     private String validResponseCodes         = DescriptorImpl.validResponseCodes;
     private String validResponseContent       = DescriptorImpl.validResponseContent;
+    private String invalidResponseContent     = DescriptorImpl.invalidResponseContent;
+    private String validResponsePatterns      = DescriptorImpl.validResponsePatterns;
     private MimeType acceptType               = DescriptorImpl.acceptType;
     private MimeType contentType              = DescriptorImpl.contentType;
     private String outputFile                 = DescriptorImpl.outputFile;
+    private String uploadFile                 = DescriptorImpl.uploadFile;
     private Integer timeout                   = DescriptorImpl.timeout;
+    private Integer connectTimeout            = DescriptorImpl.connectTimeout;
+    private Integer readTimeout               = DescriptorImpl.readTimeout;
+    private Integer leaseTimeout              = DescriptorImpl.leaseTimeout;
+    private Integer totalTimeout              = DescriptorImpl.totalTimeout;
+    private Integer maxAttempts               = DescriptorImpl.maxAttempts;
+    private String retryResponseCodes         = DescriptorImpl.retryResponseCodes;
+    private Integer retryDelay                = DescriptorImpl.retryDelay;
+    private Boolean retryNonIdempotent        = DescriptorImpl.retryNonIdempotent;
+    private Integer maxResumes                = DescriptorImpl.maxResumes;
+    private Integer downloadSegments          = DescriptorImpl.downloadSegments;
+    private DigestAlgorithm digestAlgorithm   = DescriptorImpl.digestAlgorithm;
+    private String expectedDigest             = DescriptorImpl.expectedDigest;
+    private HttpProtocol protocol             = DescriptorImpl.protocol;
+    private Boolean compressRequestBody       = DescriptorImpl.compressRequestBody;
+    private Boolean runOnAgent                = DescriptorImpl.runOnAgent;
     private Boolean consoleLogResponseBody    = DescriptorImpl.consoleLogResponseBody;
     private String authentication             = DescriptorImpl.authentication;
     private String requestBody                = DescriptorImpl.requestBody;
     private List<HttpRequestNameValuePair> customHeaders = DescriptorImpl.customHeaders;
+    private List<HttpRequestFormDataPart> formData = DescriptorImpl.formData;
 
     @DataBoundConstructor
     public HttpRequest(@Nonnull String url) {
@@ -98,6 +141,16 @@ public class HttpRequest extends Builder {
         this.validResponseContent = validResponseContent;
     }
 
+    @DataBoundSetter
+    public void setInvalidResponseContent(String invalidResponseContent) {
+        this.invalidResponseContent = invalidResponseContent;
+    }
+
+    @DataBoundSetter
+    public void setValidResponsePatterns(String validResponsePatterns) {
+        this.validResponsePatterns = validResponsePatterns;
+    }
+
     @DataBoundSetter
     public void setAcceptType(MimeType acceptType) {
         this.acceptType = acceptType;
@@ -113,11 +166,91 @@ public class HttpRequest extends Builder {
         this.outputFile = outputFile;
     }
 
+    @DataBoundSetter
+    public void setUploadFile(String uploadFile) {
+        this.uploadFile = uploadFile;
+    }
+
     @DataBoundSetter
     public void setTimeout(Integer timeout) {
         this.timeout = timeout;
     }
 
+    @DataBoundSetter
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @DataBoundSetter
+    public void setReadTimeout(Integer readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @DataBoundSetter
+    public void setLeaseTimeout(Integer leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    @DataBoundSetter
+    public void setTotalTimeout(Integer totalTimeout) {
+        this.totalTimeout = totalTimeout;
+    }
+
+    @DataBoundSetter
+    public void setMaxAttempts(Integer maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    @DataBoundSetter
+    public void setRetryResponseCodes(String retryResponseCodes) {
+        this.retryResponseCodes = retryResponseCodes;
+    }
+
+    @DataBoundSetter
+    public void setRetryDelay(Integer retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    @DataBoundSetter
+    public void setRetryNonIdempotent(Boolean retryNonIdempotent) {
+        this.retryNonIdempotent = retryNonIdempotent;
+    }
+
+    @DataBoundSetter
+    public void setMaxResumes(Integer maxResumes) {
+        this.maxResumes = maxResumes;
+    }
+
+    @DataBoundSetter
+    public void setDownloadSegments(Integer downloadSegments) {
+        this.downloadSegments = downloadSegments;
+    }
+
+    @DataBoundSetter
+    public void setDigestAlgorithm(DigestAlgorithm digestAlgorithm) {
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    @DataBoundSetter
+    public void setExpectedDigest(String expectedDigest) {
+        this.expectedDigest = expectedDigest;
+    }
+
+    @DataBoundSetter
+    public void setProtocol(HttpProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    @DataBoundSetter
+    public void setCompressRequestBody(Boolean compressRequestBody) {
+        this.compressRequestBody = compressRequestBody;
+    }
+
+    @DataBoundSetter
+    public void setRunOnAgent(Boolean runOnAgent) {
+        this.runOnAgent = runOnAgent;
+    }
+
     @DataBoundSetter
     public void setConsoleLogResponseBody(Boolean consoleLogResponseBody) {
         this.consoleLogResponseBody = consoleLogResponseBody;
@@ -138,6 +271,11 @@ public class HttpRequest extends Builder {
         this.customHeaders = customHeaders;
     }
 
+    @DataBoundSetter
+    public void setFormData(List<HttpRequestFormDataPart> formData) {
+        this.formData = formData;
+    }
+
     @Initializer(before = InitMilestone.PLUGINS_STARTED)
     public static void xStreamCompatibility() {
         Items.XSTREAM2.aliasField("logResponseBody", HttpRequest.class, "consoleLogResponseBody");
@@ -149,6 +287,9 @@ public class HttpRequest extends Builder {
         if (customHeaders == null) {
             customHeaders = DescriptorImpl.customHeaders;
         }
+        if (formData == null) {
+            formData = DescriptorImpl.formData;
+        }
         if (validResponseCodes == null || validResponseCodes.trim().isEmpty()) {
             validResponseCodes = DescriptorImpl.validResponseCodes;
         }
@@ -179,6 +320,10 @@ public class HttpRequest extends Builder {
         return outputFile;
     }
 
+    public String getUploadFile() {
+        return uploadFile;
+    }
+
     public Boolean getConsoleLogResponseBody() {
         return consoleLogResponseBody;
     }
@@ -191,10 +336,74 @@ public class HttpRequest extends Builder {
         return customHeaders;
     }
 
+    public List<HttpRequestFormDataPart> getFormData() {
+        return formData;
+    }
+
     public Integer getTimeout() {
         return timeout;
     }
 
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public Integer getReadTimeout() {
+        return readTimeout;
+    }
+
+    public Integer getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    public Integer getTotalTimeout() {
+        return totalTimeout;
+    }
+
+    public Integer getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public String getRetryResponseCodes() {
+        return retryResponseCodes;
+    }
+
+    public Integer getRetryDelay() {
+        return retryDelay;
+    }
+
+    public Boolean getRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+    public Integer getMaxResumes() {
+        return maxResumes;
+    }
+
+    public Integer getDownloadSegments() {
+        return downloadSegments;
+    }
+
+    public DigestAlgorithm getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public String getExpectedDigest() {
+        return expectedDigest;
+    }
+
+    public HttpProtocol getProtocol() {
+        return protocol;
+    }
+
+    public Boolean getCompressRequestBody() {
+        return compressRequestBody;
+    }
+
+    public Boolean getRunOnAgent() {
+        return runOnAgent;
+    }
+
     public @Nonnull String getValidResponseCodes() {
         return validResponseCodes;
     }
@@ -203,6 +412,14 @@ public class HttpRequest extends Builder {
         return validResponseContent;
     }
 
+    public String getInvalidResponseContent() {
+        return invalidResponseContent;
+    }
+
+    public String getValidResponsePatterns() {
+        return validResponsePatterns;
+    }
+
     public String getRequestBody() {
         return requestBody;
     }
@@ -234,17 +451,62 @@ public class HttpRequest extends Builder {
             headers.add(new HttpRequestNameValuePair(headerName, headerValue));
         }
 
-        RequestAction requestAction = new RequestAction(new URL(evaluatedUrl), httpMode, evaluatedBody, params, headers);
-
-        ResponseContentSupplier responseContentSupplier = performHttpRequest(listener, requestAction);
-
-        logResponseToFile(build.getWorkspace(), logger, responseContentSupplier);
+        RequestAction requestAction = new RequestAction(new URL(evaluatedUrl), httpMode, evaluatedBody, params, headers,
+                getUploadFilePath(build.getWorkspace()));
+        List<HttpRequestFormDataPart> evaluatedFormData = new ArrayList<>();
+        for (HttpRequestFormDataPart part : formData) {
+            HttpRequestFormDataPart evaluatedPart = new HttpRequestFormDataPart(evaluate(part.getName(), buildVariableResolver, envVars));
+            evaluatedPart.setValue(evaluate(part.getValue(), buildVariableResolver, envVars));
+            evaluatedPart.setUploadFile(evaluate(part.getUploadFile(), buildVariableResolver, envVars));
+            evaluatedPart.setFileName(evaluate(part.getFileName(), buildVariableResolver, envVars));
+            evaluatedPart.setContentType(part.getContentType());
+            evaluatedFormData.add(evaluatedPart);
+        }
+        addFormData(requestAction, evaluatedFormData, build.getWorkspace());
+
+        ResponseContentSupplier responseContentSupplier = Boolean.TRUE.equals(runOnAgent)
+                ? performHttpRequestOnAgent(listener, requestAction, build.getWorkspace(),
+                        getOutputFilePath(build.getWorkspace()), false)
+                : performHttpRequest(listener, requestAction,
+                        getOutputFilePath(build.getWorkspace()), build.getRootDir(), false, false);
+        // nothing uses the body left unread
+        responseContentSupplier.discardContent();
         return true;
     }
 
     public ResponseContentSupplier performHttpRequest(TaskListener listener)
     throws InterruptedException, IOException
     {
+        return performHttpRequest(null, listener, null);
+    }
+
+    /**
+     * @param run whose directory receives the responses too large to be kept in memory,
+     * may be null to keep them in memory
+     * @param workspace where the output file is written, may be null when no output file is set
+     */
+    public ResponseContentSupplier performHttpRequest(Run<?, ?> run, TaskListener listener, FilePath workspace)
+    throws InterruptedException, IOException
+    {
+        return performHttpRequest(run, listener, workspace, false);
+    }
+
+    /**
+     * @param lazyContent return once the status and headers are received, the body is
+     * read when the content is first asked for; the caller reads or discards it
+     */
+    public ResponseContentSupplier performHttpRequest(Run<?, ?> run, TaskListener listener, FilePath workspace, boolean lazyContent)
+    throws InterruptedException, IOException
+    {
+        if (Boolean.TRUE.equals(runOnAgent)) {
+            return performHttpRequestOnAgent(listener, createRequestAction(workspace), workspace,
+                    getOutputFilePath(workspace), true);
+        }
+        return performHttpRequest(listener, createRequestAction(workspace),
+                getOutputFilePath(workspace), run == null ? null : run.getRootDir(), true, !lazyContent);
+    }
+
+    private RequestAction createRequestAction(FilePath workspace) throws IOException {
         List<HttpRequestNameValuePair> params = Collections.emptyList();
         List<HttpRequestNameValuePair> headers = new ArrayList<>();
         if (contentType != MimeType.NOT_SET) {
@@ -257,107 +519,698 @@ public class HttpRequest extends Builder {
             headers.add(new HttpRequestNameValuePair(header.getName(), header.getValue()));
         }
 
-        RequestAction requestAction = new RequestAction(new URL(url), httpMode, requestBody, params, headers);
-
-        return performHttpRequest(listener, requestAction);
+        RequestAction requestAction = new RequestAction(new URL(url), httpMode, requestBody, params, headers, getUploadFilePath(workspace));
+        addFormData(requestAction, formData, workspace);
+        return requestAction;
     }
 
     public ResponseContentSupplier performHttpRequest(TaskListener listener, RequestAction requestAction)
     throws InterruptedException, IOException
     {
-        final PrintStream logger = listener.getLogger();
-        logger.println("HttpMode: " + requestAction.getMode());
-        logger.println(String.format("URL: %s", requestAction.getUrl()));
-        for (HttpRequestNameValuePair header : requestAction.getHeaders()) {
-            logger.println(header.getName() + ": " + header.getValue());
+        return performHttpRequest(listener, requestAction, null, null, true, true);
+    }
+
+    /**
+     * @param outputFilePath when not null, the response entity is streamed to this file
+     * and only read back when it must be logged or checked
+     * @param spillDirectory where a response larger than the global memory threshold is kept,
+     * may be null to keep it in memory
+     * @param keepContent false when nothing uses the body once checked, so the check
+     * can stop reading it early
+     * @param readContent read the body before returning, within the total timeout
+     * @return the response, its body is not read yet when it isn't logged, checked or read
+     */
+    private ResponseContentSupplier performHttpRequest(TaskListener listener, RequestAction requestAction,
+            FilePath outputFilePath, File spillDirectory, boolean keepContent, boolean readContent)
+    throws InterruptedException, IOException
+    {
+        RequestDeadline deadline = RequestDeadline.start(createTimeouts().getTotalTimeout());
+        boolean armed = false;
+        try {
+            ResponseContentSupplier responseContentSupplier = performHttpRequest(listener, requestAction,
+                    outputFilePath, spillDirectory, keepContent, deadline);
+            if (readContent) {
+                responseContentSupplier.readContent();
+            }
+            if (deadline.isExpired()) {
+                responseContentSupplier.discardContent();
+                throw new AbortException(deadline.getMessage());
+            }
+            // the body read later is still bounded by the total timeout
+            armed = responseContentSupplier.cancelOnceRead(deadline);
+            return responseContentSupplier;
+        } finally {
+            if (!armed) {
+                deadline.cancel();
+            }
         }
+    }
 
-        DefaultHttpClient httpclient = new SystemDefaultHttpClient();
+    private ResponseContentSupplier performHttpRequest(TaskListener listener, RequestAction requestAction,
+            FilePath outputFilePath, File spillDirectory, boolean keepContent, RequestDeadline deadline)
+    throws InterruptedException, IOException
+    {
+        final PrintStream logger = listener.getLogger();
+        logRequest(logger, requestAction);
+        deletePartFile(outputFilePath);
 
         HttpClientUtil clientUtil = new HttpClientUtil();
+        DefaultHttpClient httpclient = HttpRequestGlobalConfig.get().createHttpClient();
         HttpRequestBase httpRequestBase = clientUtil.createRequestBase(requestAction);
+        deadline.watch(httpRequestBase);
+        ResumableDownload download = null;
+        if (isDownload(requestAction, outputFilePath)) {
+            download = new ResumableDownload(outputFilePath, getPartFile(outputFilePath), getMaxResumes(0),
+                    getDownloadSegments(1), logger);
+            download.prepare(httpRequestBase);
+        }
+        final DigestAlgorithm algorithm = getDigestAlgorithm(outputFilePath);
+        BodyDigest.DigestingEntity uploadDigest = null;
+        if (algorithm != DigestAlgorithm.NONE) {
+            uploadDigest = BodyDigest.digestRequestBody(httpRequestBase, algorithm);
+            if (download != null) {
+                download.setDigestAlgorithm(algorithm);
+            } else if (outputFilePath != null) {
+                // the digests sent by the server are of the body as it is sent
+                httpRequestBase.setHeader(HttpHeaders.ACCEPT_ENCODING, "identity");
+            }
+        }
+        if (Boolean.TRUE.equals(compressRequestBody) && clientUtil.compressRequestBody(httpRequestBase)) {
+            logger.println("Request body is compressed with gzip");
+        }
+        clientUtil.acceptCompressedResponses(httpclient, httpRequestBase);
+        RequestTimeouts timeouts = createTimeouts();
 
         HttpContext context = new BasicHttpContext();
 
-        if (authentication != null && !authentication.isEmpty()) {
-            final Authenticator auth = HttpRequestGlobalConfig.get().getAuthentication(authentication);
-            if (auth == null) {
-                throw new IllegalStateException("Authentication '" + authentication + "' doesn't exist anymore");
+        // a partial body can't be cached
+        HttpResponseCache cache = download == null ? getResponseCache(requestAction) : null;
+        String cacheKey = null;
+        HttpResponseCache.Entry cached = null;
+        if (cache != null) {
+            cacheKey = HttpResponseCache.createKey(httpRequestBase);
+            cached = cache.get(cacheKey);
+            if (cached != null && cached.isFresh()) {
+                logger.println("Using cached response, it is still fresh");
+                return processResponse(createResponseContentSupplier(httpRequestBase, cached.toResponse(),
+                        outputFilePath, spillDirectory), logger, keepContent, outputFilePath);
             }
+        }
 
+        ResponseContentSupplier responseContentSupplier;
+        int attempt = 1;
+        try {
+            final Authenticator auth = getAuthenticator();
+            if (auth != null) {
+                logger.println("Using authentication: " + auth.getKeyName());
+                auth.authenticate(httpclient, context, httpRequestBase, logger, timeout);
+            }
+
+            Http2Transport transport = HttpRequestGlobalConfig.get().getHttp2Transport(protocol);
+            if (transport != null && auth != null) {
+                // the credentials and login cookies are kept by the HTTP/1.1 client
+                logger.println("Authenticated requests are sent over HTTP/1.1");
+                transport = null;
+            }
+
+            if (cached != null) {
+                cached.addConditionalHeaders(httpRequestBase);
+            }
+
+            RetryPolicy retryPolicy = createRetryPolicy();
+            while (true) {
+                long start = System.currentTimeMillis();
+                try {
+                    HttpResponse response = clientUtil.execute(httpclient, context, httpRequestBase, logger, timeouts, transport);
+                    if (auth instanceof FormAuthentication && isRepeatable(httpRequestBase)
+                            && ((FormAuthentication) auth).isSessionRejected(context, response)) {
+                        EntityUtils.consume(response.getEntity());
+                        httpRequestBase.releaseConnection();
+                        logger.println("Login session of authentication " + auth.getKeyName() + " was rejected, logging in again");
+                        httpclient.getCookieStore().clear();
+                        context = new BasicHttpContext();
+                        auth.authenticate(httpclient, context, httpRequestBase, logger, timeout);
+                        response = clientUtil.execute(httpclient, context, httpRequestBase, logger, timeouts, transport);
+                    }
+                    if (retryPolicy.isRetried(response) && retryPolicy.canRetry(attempt, requestAction.getMode(), httpRequestBase)) {
+                        EntityUtils.consume(response.getEntity());
+                        httpRequestBase.releaseConnection();
+                        waitForRetry(logger, retryPolicy, deadline, attempt, start, response.getStatusLine().toString(),
+                                retryPolicy.getDelay(attempt, response));
+                        attempt++;
+                        continue;
+                    }
+                    if (cached != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                        EntityUtils.consume(response.getEntity());
+                        logger.println("Using cached response, it was not modified");
+                        response = cache.revalidated(cached, response).toResponse();
+                        // the body is now read by the response
+                        cached = null;
+                    } else if (cache != null) {
+                        cache.store(cacheKey, response);
+                    }
+                    if (download != null) {
+                        response = download.transfer(httpRequestBase, response,
+                                createSender(clientUtil, httpclient, context, logger, timeouts, transport),
+                                ResponseCodeMatcher.compile(validResponseCodes));
+                    }
+                    if (download != null && download.isWritten()) {
+                        responseContentSupplier = new ResponseContentSupplier(response, download, consoleLogResponseBody,
+                                createOutputFileMatcher());
+                    } else if (download != null) {
+                        // not valid, or an error answering the rest of a partial download
+                        responseContentSupplier = createResponseContentSupplier(httpRequestBase, response, null, spillDirectory);
+                    } else {
+                        responseContentSupplier = createResponseContentSupplier(httpRequestBase, response, outputFilePath, spillDirectory);
+                    }
+                } catch (IOException e) {
+                    if (deadline.isExpired()) {
+                        throw new AbortException(deadline.getMessage());
+                    }
+                    if (retryPolicy.isRetried(e) && retryPolicy.canRetry(attempt, requestAction.getMode(), httpRequestBase)) {
+                        httpRequestBase.releaseConnection();
+                        waitForRetry(logger, retryPolicy, deadline, attempt, start, e.getClass().getName() + "(" + e.getMessage() + ")",
+                                retryPolicy.getDelay(attempt, null));
+                        attempt++;
+                        continue;
+                    }
+                    if (!(e instanceof UnknownHostException || e instanceof SocketTimeoutException || e instanceof ConnectException)) {
+                        throw e;
+                    }
+                    responseContentSupplier = treatExceptionAsResponse(e, logger);
+                }
+                break;
+            }
+        } finally {
+            if (cached != null) {
+                cached.release();
+            }
+        }
+        if (attempt > 1) {
+            logger.println("Response received after " + attempt + " attempts");
+        }
+        responseContentSupplier.setAttempts(attempt);
+        if (uploadDigest != null) {
+            responseContentSupplier.setUploadDigest(uploadDigest.getDigest());
+        }
+
+        try {
+            return processResponse(responseContentSupplier, logger, keepContent, outputFilePath);
+        } catch (AbortException e) {
+            responseContentSupplier.discardContent();
+            if (deadline.isExpired()) {
+                // the check failed on the aborted body
+                throw new AbortException(deadline.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the request from the agent of the workspace, see {@link AgentRequestCallable}.
+     * The body is read on the agent, written to the output file there when one is set.
+     */
+    private ResponseContentSupplier performHttpRequestOnAgent(TaskListener listener, RequestAction requestAction,
+            FilePath workspace, FilePath outputFilePath, boolean keepContent)
+    throws InterruptedException, IOException
+    {
+        if (workspace == null) {
+            throw new AbortException("A request run on the agent needs a workspace");
+        }
+        if (maxAttempts != null && maxAttempts > 1) {
+            throw new AbortException("A request run on the agent can't be retried");
+        }
+        final PrintStream logger = listener.getLogger();
+        logRequest(logger, requestAction);
+
+        final Authenticator auth = getAuthenticator();
+        if (auth != null) {
+            if (!(auth instanceof BasicDigestAuthentication)) {
+                throw new AbortException("Authentication '" + auth.getKeyName() + "' can't be used by a request run on the agent, only Basic/Digest authentications can");
+            }
             logger.println("Using authentication: " + auth.getKeyName());
-            auth.authenticate(httpclient, context, httpRequestBase, logger, timeout);
+        }
+        if (protocol == HttpProtocol.HTTP_2 || protocol == HttpProtocol.H2C) {
+            logger.println("Requests run on the agent are sent over HTTP/1.1");
         }
 
+        DigestAlgorithm algorithm = getDigestAlgorithm(outputFilePath);
+        deletePartFile(outputFilePath);
+        HttpRequestGlobalConfig config = HttpRequestGlobalConfig.get();
+        AgentRequestCallable callable = new AgentRequestCallable(listener, requestAction, workspace,
+                Boolean.TRUE.equals(compressRequestBody), createTimeouts(), config.isTrustAllCertificates(),
+                (BasicDigestAuthentication) auth, outputFilePath, validResponseCodes,
+                validResponseContent, invalidResponseContent, validResponsePatterns, consoleLogResponseBody,
+                config.getResponseMemoryThreshold() * 1024L,
+                isDownload(requestAction, outputFilePath) ? getMaxResumes(0) : 0, getDownloadSegments(1), algorithm);
+        logger.println("Running the request on the agent of the workspace");
         ResponseContentSupplier responseContentSupplier;
         try {
-            final HttpResponse response = clientUtil.execute(httpclient, context, httpRequestBase, logger, timeout);
-            // The HttpEntity is consumed by the ResponseContentSupplier
-            responseContentSupplier = new ResponseContentSupplier(response);
-        } catch (UnknownHostException uhe) {
-            logger.println("Treating UnknownHostException(" + uhe.getMessage() + ") as 404 Not Found");
-            responseContentSupplier = new ResponseContentSupplier("UnknownHostException as 404 Not Found", 404);
-        } catch (SocketTimeoutException | ConnectException ce) {
-            logger.println("Treating " + ce.getClass() + "(" + ce.getMessage() + ") as 408 Request Timeout");
-            responseContentSupplier = new ResponseContentSupplier(ce.getClass() + "(" + ce.getMessage() + ") as 408 Request Timeout", 408);
+            responseContentSupplier = workspace.act(callable);
+        } catch (UnknownHostException | SocketTimeoutException | ConnectException e) {
+            responseContentSupplier = treatExceptionAsResponse(e, logger);
         }
+        return processResponse(responseContentSupplier, logger, keepContent, outputFilePath);
+    }
+
+    private RequestTimeouts createTimeouts() {
+        return RequestTimeouts.of(timeout, connectTimeout, readTimeout, leaseTimeout, totalTimeout);
+    }
 
+    private RetryPolicy createRetryPolicy() {
+        return new RetryPolicy(maxAttempts == null ? DescriptorImpl.maxAttempts : maxAttempts,
+                retryResponseCodes == null ? DescriptorImpl.retryResponseCodes : retryResponseCodes,
+                retryDelay == null ? DescriptorImpl.retryDelay : retryDelay,
+                Boolean.TRUE.equals(retryNonIdempotent));
+    }
+
+    /**
+     * @throws AbortException when the total timeout elapses before the retry is sent
+     */
+    private static void waitForRetry(PrintStream logger, RetryPolicy retryPolicy, RequestDeadline deadline, int attempt,
+            long start, String failure, long delay) throws InterruptedException, AbortException {
+        if (delay >= deadline.getRemaining()) {
+            logger.println(String.format("Attempt %d of %d failed after %d ms with %s, not retried in %d ms",
+                    attempt, retryPolicy.getMaxAttempts(), System.currentTimeMillis() - start, failure, delay));
+            throw new AbortException(deadline.getMessage());
+        }
+        logger.println(String.format("Attempt %d of %d failed after %d ms with %s, retrying in %d ms",
+                attempt, retryPolicy.getMaxAttempts(), System.currentTimeMillis() - start, failure, delay));
+        Thread.sleep(delay);
+    }
+
+    /**
+     * @return whether the body is written to the output file as a {@link ResumableDownload},
+     * resumed or in segments
+     */
+    private boolean isDownload(RequestAction requestAction, FilePath outputFilePath) throws AbortException {
+        if ((getMaxResumes(0) <= 0 && getDownloadSegments(1) <= 1) || outputFilePath == null) {
+            return false;
+        }
+        if (requestAction.getMode() != HttpMode.GET) {
+            throw new AbortException("Only the download of a GET request can be resumed or segmented");
+        }
+        return true;
+    }
+
+    /**
+     * @return the algorithm of the digests of the bodies, {@link DigestAlgorithm#NONE} when none are computed
+     */
+    private DigestAlgorithm getDigestAlgorithm(FilePath outputFilePath) throws AbortException {
+        DigestAlgorithm algorithm = digestAlgorithm == null ? DigestAlgorithm.NONE : digestAlgorithm;
+        if (!Strings.isNullOrEmpty(expectedDigest) && (algorithm == DigestAlgorithm.NONE || outputFilePath == null)) {
+            throw new AbortException("An expected digest needs a digest algorithm and an output file");
+        }
+        return algorithm;
+    }
+
+    private int getMaxResumes(int defaultValue) {
+        return maxResumes == null ? defaultValue : maxResumes;
+    }
+
+    /**
+     * @return at most as many segments as there may be connections to a host
+     */
+    private int getDownloadSegments(int defaultValue) {
+        int segments = downloadSegments == null ? defaultValue : downloadSegments;
+        return Math.min(segments, getMaxDownloadSegments());
+    }
+
+    static int getMaxDownloadSegments() {
+        return Math.min(ResumableDownload.MAX_SEGMENTS, HttpRequestGlobalConfig.get().getMaxConnectionsPerRoute());
+    }
+
+    private static ResumableDownload.Sender createSender(final HttpClientUtil clientUtil, final DefaultHttpClient httpclient,
+            final HttpContext context, final PrintStream logger, final RequestTimeouts timeouts, final Http2Transport transport) {
+        return new ResumableDownload.Sender() {
+            @Override
+            public HttpResponse send(HttpRequestBase request) throws IOException, InterruptedException {
+                // a context of its own for each segment, sharing the authentication of the request
+                return clientUtil.execute(httpclient, new BasicHttpContext(context), request, logger, timeouts, transport);
+            }
+        };
+    }
+
+    private static boolean isRepeatable(HttpRequestBase httpRequestBase) {
+        if (httpRequestBase instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) httpRequestBase).getEntity();
+            return entity == null || entity.isRepeatable();
+        }
+        return true;
+    }
+
+    /**
+     * The body of a response with a valid status is written aside of the output file,
+     * see {@link #processResponse(ResponseContentSupplier, PrintStream, boolean, FilePath)}.
+     */
+    private ResponseContentSupplier createResponseContentSupplier(HttpRequestBase httpRequestBase, HttpResponse response,
+            FilePath outputFilePath, File spillDirectory) throws IOException, InterruptedException {
+        // The HttpEntity is consumed by the ResponseContentSupplier
+        if (outputFilePath != null && ResponseCodeMatcher.compile(validResponseCodes).matches(response.getStatusLine().getStatusCode())) {
+            DigestAlgorithm algorithm = getDigestAlgorithm(outputFilePath);
+            return new ResponseContentSupplier(response, getPartFile(outputFilePath), consoleLogResponseBody,
+                    algorithm == DigestAlgorithm.NONE ? null : algorithm.createDigest(), createOutputFileMatcher());
+        }
+        return new ResponseContentSupplier(httpRequestBase, response, spillDirectory,
+                HttpRequestGlobalConfig.get().getResponseMemoryThreshold() * 1024L);
+    }
+
+    /**
+     * @return the response cache when it is enabled and the request can use it, only GET requests without body
+     * nor authentication can
+     */
+    private HttpResponseCache getResponseCache(RequestAction requestAction) {
+        if (requestAction.getMode() != HttpMode.GET || requestAction.getUploadFile() != null
+                || !Strings.isNullOrEmpty(authentication)) {
+            return null;
+        }
+        return HttpRequestGlobalConfig.get().getResponseCache();
+    }
+
+    /**
+     * Sends the request without waiting for the response, the callback is
+     * completed from the I/O thread of the asynchronous client with the
+     * validated response or the failure.
+     * Only Basic/Digest authentications can be used by asynchronous requests.
+     */
+    public Future<HttpResponse> performHttpRequestAsync(TaskListener listener, final FutureCallback<ResponseContentSupplier> callback)
+    throws IOException
+    {
+        if (!Strings.isNullOrEmpty(outputFile)) {
+            throw new AbortException("An output file can't be used by an asynchronous request");
+        }
+        if (!Strings.isNullOrEmpty(uploadFile)) {
+            throw new AbortException("An upload file can't be used by an asynchronous request");
+        }
+        if (formData != null && !formData.isEmpty()) {
+            throw new AbortException("Form data can't be sent by an asynchronous request");
+        }
+        if (Boolean.TRUE.equals(runOnAgent)) {
+            throw new AbortException("An asynchronous request can't be run on the agent");
+        }
+        if (digestAlgorithm != null && digestAlgorithm != DigestAlgorithm.NONE) {
+            throw new AbortException("Digests can't be computed by an asynchronous request");
+        }
+        if (maxAttempts != null && maxAttempts > 1) {
+            throw new AbortException("An asynchronous request can't be retried");
+        }
+        final PrintStream logger = listener.getLogger();
+        RequestAction requestAction = createRequestAction(null);
+        logRequest(logger, requestAction);
+
+        HttpClientUtil clientUtil = new HttpClientUtil();
+        HttpRequestBase httpRequestBase = clientUtil.createRequestBase(requestAction);
+        if (Boolean.TRUE.equals(compressRequestBody) && clientUtil.compressRequestBody(httpRequestBase)) {
+            logger.println("Request body is compressed with gzip");
+        }
+        final boolean decompress = !httpRequestBase.containsHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (decompress) {
+            httpRequestBase.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip,deflate");
+        }
+
+        final HttpClientContext context = HttpClientContext.create();
+        RequestTimeouts timeouts = createTimeouts();
+        context.setRequestConfig(timeouts.createRequestConfig(HttpRequestGlobalConfig.get().getConnectionLeaseTimeout() * 1000));
+
+        final Authenticator auth = getAuthenticator();
+        if (auth != null) {
+            if (!(auth instanceof BasicDigestAuthentication)) {
+                throw new AbortException("Authentication '" + auth.getKeyName() + "' can't be used by an asynchronous request, only Basic/Digest authentications can");
+            }
+            logger.println("Using authentication: " + auth.getKeyName());
+            ((BasicDigestAuthentication) auth).authenticate(context, httpRequestBase);
+        }
+
+        if (protocol == HttpProtocol.HTTP_2 || protocol == HttpProtocol.H2C) {
+            logger.println("Asynchronous requests are sent over HTTP/1.1");
+        }
+        logger.println("Sending request to url: " + httpRequestBase.getURI());
+        final RequestDeadline deadline = RequestDeadline.start(timeouts.getTotalTimeout());
+        Future<HttpResponse> future = HttpRequestGlobalConfig.get().getAsyncHttpClient().execute(httpRequestBase, context, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                deadline.cancel();
+                logger.println("Response Code: " + response.getStatusLine());
+                if (decompress) {
+                    try {
+                        // the asynchronous client has no decompressing interceptor of its own
+                        new ResponseContentEncoding().process(response, context);
+                    } catch (HttpException | IOException e) {
+                        callback.failed(e);
+                        return;
+                    }
+                }
+                // the asynchronous client has already buffered the entity
+                complete(new ResponseContentSupplier(response));
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                deadline.cancel();
+                ResponseContentSupplier responseContentSupplier = treatExceptionAsResponse(ex, logger);
+                if (responseContentSupplier == null) {
+                    callback.failed(ex);
+                } else {
+                    complete(responseContentSupplier);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                deadline.cancel();
+                if (deadline.isExpired()) {
+                    callback.failed(new AbortException(deadline.getMessage()));
+                } else {
+                    callback.cancelled();
+                }
+            }
+
+            private void complete(ResponseContentSupplier responseContentSupplier) {
+                try {
+                    callback.completed(processResponse(responseContentSupplier, logger, true));
+                } catch (IOException e) {
+                    callback.failed(e);
+                }
+            }
+        });
+        deadline.watch(future);
+        return future;
+    }
+
+    private void logRequest(PrintStream logger, RequestAction requestAction) {
+        logger.println("HttpMode: " + requestAction.getMode());
+        logger.println(String.format("URL: %s", requestAction.getUrl()));
+        for (HttpRequestNameValuePair header : requestAction.getHeaders()) {
+            logger.println(header.getName() + ": " + header.getValue());
+        }
+    }
+
+    private Authenticator getAuthenticator() {
+        if (authentication == null || authentication.isEmpty()) {
+            return null;
+        }
+        final Authenticator auth = HttpRequestGlobalConfig.get().getAuthentication(authentication);
+        if (auth == null) {
+            throw new IllegalStateException("Authentication '" + authentication + "' doesn't exist anymore");
+        }
+        return auth;
+    }
+
+    /**
+     * @return the response standing for the exception, null when it must fail the request
+     */
+    private static ResponseContentSupplier treatExceptionAsResponse(Exception e, PrintStream logger) {
+        if (e instanceof UnknownHostException) {
+            logger.println("Treating UnknownHostException(" + e.getMessage() + ") as 404 Not Found");
+            return new ResponseContentSupplier("UnknownHostException as 404 Not Found", 404);
+        }
+        if (e instanceof SocketTimeoutException || e instanceof ConnectException) {
+            logger.println("Treating " + e.getClass() + "(" + e.getMessage() + ") as 408 Request Timeout");
+            return new ResponseContentSupplier(e.getClass() + "(" + e.getMessage() + ") as 408 Request Timeout", 408);
+        }
+        return null;
+    }
+
+    /**
+     * @return where the body is written until the response is validated
+     */
+    static FilePath getPartFile(FilePath outputFilePath) {
+        return outputFilePath.sibling(outputFilePath.getName() + PART_SUFFIX);
+    }
+
+    /**
+     * Drops the body left aside by an interrupted build, so only one written by this request is moved
+     * into the output file.
+     */
+    private static void deletePartFile(FilePath outputFilePath) throws IOException, InterruptedException {
+        if (outputFilePath != null) {
+            getPartFile(outputFilePath).delete();
+        }
+    }
+
+    /**
+     * Same as {@link #processResponse(ResponseContentSupplier, PrintStream, boolean)}, then moves
+     * the body written aside into the output file; as when the body was written once the request
+     * returned, the output file is left as it is when the response isn't valid.
+     *
+     * @param outputFilePath may be null
+     */
+    private ResponseContentSupplier processResponse(ResponseContentSupplier responseContentSupplier, PrintStream logger,
+            boolean keepContent, FilePath outputFilePath)
+    throws IOException, InterruptedException
+    {
+        FilePath partFile = outputFilePath == null ? null : getPartFile(outputFilePath);
+        try {
+            processResponse(responseContentSupplier, logger, keepContent);
+        } catch (AbortException e) {
+            if (partFile != null) {
+                partFile.delete();
+            }
+            throw e;
+        }
+        if (partFile != null && partFile.exists()) {
+            // a file can't be renamed over another on Windows
+            outputFilePath.delete();
+            partFile.renameTo(outputFilePath);
+        }
+        return responseContentSupplier;
+    }
+
+    private ResponseContentSupplier processResponse(ResponseContentSupplier responseContentSupplier, PrintStream logger,
+            boolean keepContent)
+    throws AbortException
+    {
         if (consoleLogResponseBody) {
             logger.println("Response: \n" + responseContentSupplier.getContent());
         }
 
         responseCodeIsValid(responseContentSupplier, logger);
-        contentIsValid(responseContentSupplier, logger);
+        digestIsValid(responseContentSupplier, logger);
+        contentIsValid(responseContentSupplier, logger, keepContent);
 
         return responseContentSupplier;
     }
 
-    private void contentIsValid(ResponseContentSupplier responseContentSupplier, PrintStream logger)
+    /**
+     * Checks the digest of the body written to the output file against the expected one
+     * and the one sent by the server, if any.
+     */
+    private void digestIsValid(ResponseContentSupplier response, PrintStream logger)
     throws AbortException
     {
-        if (Strings.isNullOrEmpty(validResponseContent)) {
+        if (response.getUploadDigest() != null) {
+            logger.println(digestAlgorithm.getAlgorithm() + " digest of the request body: " + response.getUploadDigest());
+        }
+        String digest = response.getDigest();
+        if (digest == null) {
             return;
         }
-
-        String response = responseContentSupplier.getContent();
-        if (!response.contains(validResponseContent)) {
-            throw new AbortException("Fail: Response with length " + response.length() + " doesn't contain '" + validResponseContent + "'");
+        String name = digestAlgorithm.getAlgorithm();
+        logger.println(name + " digest of the response body: " + digest);
+        if (!Strings.isNullOrEmpty(expectedDigest) && !digest.equalsIgnoreCase(expectedDigest.trim())) {
+            throw new AbortException("Fail: the " + name + " digest of the response body is " + digest
+                    + ", expected " + expectedDigest.trim());
+        }
+        String sent = BodyDigest.getSentDigest(response.getHeaders(), digestAlgorithm);
+        if (sent != null) {
+            if (!digest.equalsIgnoreCase(sent)) {
+                throw new AbortException("Fail: the " + name + " digest of the response body is " + digest
+                        + ", the server sent " + sent);
+            }
+            logger.println("The digest matches the one sent by the server");
         }
-        return;
     }
 
-    private void responseCodeIsValid(ResponseContentSupplier response, PrintStream logger)
+    private void contentIsValid(ResponseContentSupplier responseContentSupplier, PrintStream logger, boolean keepContent)
     throws AbortException
     {
-        List<Range<Integer>> ranges = DescriptorImpl.parseToRange(validResponseCodes);
-        for (Range<Integer> range : ranges) {
-            if (range.contains(response.getStatus())) {
-                logger.println("Success code from " + range);
-                return;
-            }
+        ResponseContentMatcher matcher = createContentMatcher();
+        if (matcher.isEmpty()) {
+            return;
+        }
+
+        String failure = responseContentSupplier.validateContent(matcher, keepContent);
+        if (failure != null) {
+            throw new AbortException(failure);
         }
-        throw new AbortException("Fail: the returned code " + response.getStatus()+" is not in the accepted range: "+ranges);
     }
 
-    private void logResponseToFile(FilePath workspace, PrintStream logger, ResponseContentSupplier responseContentSupplier) throws IOException, InterruptedException {
+    private ResponseContentMatcher createContentMatcher() throws AbortException {
+        return createContentMatcher(validResponseContent, invalidResponseContent, validResponsePatterns);
+    }
 
-        FilePath outputFilePath = getOutputFilePath(workspace, logger);
+    /**
+     * @return the matcher checking the body as it is written to the output file, null when nothing is checked
+     */
+    private ResponseContentMatcher createOutputFileMatcher() throws AbortException {
+        ResponseContentMatcher matcher = createContentMatcher();
+        return matcher.isEmpty() ? null : matcher;
+    }
 
-        if (outputFilePath != null && responseContentSupplier.getContent() != null) {
-            OutputStreamWriter write = null;
+    static ResponseContentMatcher createContentMatcher(String validResponseContent, String invalidResponseContent,
+            String validResponsePatterns) throws AbortException {
+        List<String> required = Strings.isNullOrEmpty(validResponseContent)
+                ? Collections.<String>emptyList() : Collections.singletonList(validResponseContent);
+        List<Pattern> patterns = new ArrayList<>();
+        for (String pattern : ResponseContentMatcher.splitLines(validResponsePatterns)) {
             try {
-                write = new OutputStreamWriter(outputFilePath.write(), Charset.forName("UTF-8"));
-                write.write(responseContentSupplier.getContent());
-            } finally {
-                if (write != null) {
-                    write.close();
-                }
+                patterns.add(Pattern.compile(pattern));
+            } catch (PatternSyntaxException e) {
+                throw new AbortException("Fail: invalid response pattern '" + pattern + "': " + e.getDescription());
             }
         }
+        return new ResponseContentMatcher(required, ResponseContentMatcher.splitLines(invalidResponseContent), patterns);
     }
 
-    private FilePath getOutputFilePath(FilePath workspace, PrintStream logger) {
+    private void responseCodeIsValid(ResponseContentSupplier response, PrintStream logger)
+    throws AbortException
+    {
+        ResponseCodeMatcher matcher = ResponseCodeMatcher.compile(validResponseCodes);
+        Range<Integer> range = matcher.getMatchingRange(response.getStatus());
+        if (range != null) {
+            logger.println("Success code from " + range);
+            return;
+        }
+        throw new AbortException("Fail: the returned code " + response.getStatus()+" is not in the accepted range: "+matcher);
+    }
+
+    private FilePath getUploadFilePath(FilePath workspace) throws AbortException {
+        if (uploadFile != null && !uploadFile.isEmpty()) {
+            if (httpMode != HttpMode.POST && httpMode != HttpMode.PUT && httpMode != HttpMode.PATCH) {
+                throw new AbortException("An upload file can only be sent by a POST, PUT or PATCH request");
+            }
+            if (workspace == null) {
+                throw new AbortException("An upload file needs a workspace");
+            }
+            return workspace.child(uploadFile);
+        }
+        return null;
+    }
+
+    private void addFormData(RequestAction requestAction, List<HttpRequestFormDataPart> parts, FilePath workspace)
+            throws AbortException {
+        if (parts == null || parts.isEmpty()) {
+            return;
+        }
+        if (httpMode != HttpMode.POST && httpMode != HttpMode.PUT && httpMode != HttpMode.PATCH) {
+            throw new AbortException("Form data can only be sent by a POST, PUT or PATCH request");
+        }
+        if (requestAction.getUploadFile() != null) {
+            throw new AbortException("Form data and an upload file can't be sent together");
+        }
+        for (HttpRequestFormDataPart part : parts) {
+            if (part.isFile() && workspace == null) {
+                throw new AbortException("An upload file needs a workspace");
+            }
+        }
+        requestAction.setFormData(parts, workspace);
+    }
+
+    private FilePath getOutputFilePath(FilePath workspace) throws AbortException {
         if (outputFile != null && !outputFile.isEmpty()) {
+            if (workspace == null) {
+                throw new AbortException("An output file needs a workspace");
+            }
             return workspace.child(outputFile);
         }
         return null;
@@ -397,14 +1250,38 @@ public class HttpRequest extends Builder {
         public static final Boolean  passBuildParameters       = false;
         public static final String   validResponseCodes        = "100:399";
         public static final String   validResponseContent      = "";
+        public static final String   invalidResponseContent    = "";
+        public static final String   validResponsePatterns     = "";
         public static final MimeType acceptType                = MimeType.NOT_SET;
         public static final MimeType contentType               = MimeType.NOT_SET;
         public static final String   outputFile                = "";
+        public static final String   uploadFile                = "";
         public static final int      timeout                   = 0;
+        public static final int      connectTimeout            = 0;
+        public static final int      readTimeout               = 0;
+        public static final int      leaseTimeout              = 0;
+        public static final int      totalTimeout              = 0;
+        public static final int      maxAttempts               = 1;
+        public static final String   retryResponseCodes        = "502,503,504";
+        public static final int      retryDelay                = 1000;
+        public static final Boolean  retryNonIdempotent        = false;
+        public static final int      maxResumes                = 0;
+        public static final int      downloadSegments          = 1;
+        public static final DigestAlgorithm digestAlgorithm    = DigestAlgorithm.NONE;
+        public static final String   expectedDigest            = "";
+        public static final HttpProtocol protocol              = HttpProtocol.NOT_SET;
+        public static final Boolean  compressRequestBody       = false;
+        public static final Boolean  runOnAgent                = false;
         public static final Boolean  consoleLogResponseBody    = false;
         public static final String   authentication            = "";
         public static final String   requestBody               = "";
         public static final List <HttpRequestNameValuePair> customHeaders = Collections.<HttpRequestNameValuePair>emptyList();
+        public static final List <HttpRequestFormDataPart> formData = Collections.<HttpRequestFormDataPart>emptyList();
+
+        /**
+         * Above this number of authentications, the key name is searched instead of picked from a list.
+         */
+        static final int MAX_LISTED_AUTHENTICATIONS = 100;
 
         public DescriptorImpl() {
             load();
@@ -432,6 +1309,14 @@ public class HttpRequest extends Builder {
             return MimeType.getContentTypeFillItems();
         }
 
+        public ListBoxModel doFillProtocolItems() {
+            return HttpProtocol.getFillItems();
+        }
+
+        public ListBoxModel doFillDigestAlgorithmItems() {
+            return DigestAlgorithm.getFillItems();
+        }
+
         public ListBoxModel doFillAuthenticationItems() {
             return fillAuthenticationItems();
         }
@@ -439,16 +1324,48 @@ public class HttpRequest extends Builder {
         public static ListBoxModel fillAuthenticationItems() {
             ListBoxModel items = new ListBoxModel();
             items.add("");
-            for (BasicDigestAuthentication basicDigestAuthentication : HttpRequestGlobalConfig.get().getBasicDigestAuthentications()) {
-                items.add(basicDigestAuthentication.getKeyName());
-            }
-            for (FormAuthentication formAuthentication : HttpRequestGlobalConfig.get().getFormAuthentications()) {
-                items.add(formAuthentication.getKeyName());
+            for (String keyName : HttpRequestGlobalConfig.get().getAuthenticationIndex().getKeyNames()) {
+                items.add(keyName);
             }
 
             return items;
         }
 
+        public AutoCompletionCandidates doAutoCompleteAuthentication(@QueryParameter String value) {
+            return autoCompleteAuthentication(value);
+        }
+
+        public FormValidation doCheckAuthentication(@QueryParameter String value) {
+            return checkAuthentication(value);
+        }
+
+        /**
+         * @return true when there are too many authentications to list them all, they are then searched by key name
+         */
+        public boolean isAuthenticationSearchable() {
+            return isAuthenticationListTooLong();
+        }
+
+        public static boolean isAuthenticationListTooLong() {
+            return HttpRequestGlobalConfig.get().getAuthenticationIndex().size() > MAX_LISTED_AUTHENTICATIONS;
+        }
+
+        public static AutoCompletionCandidates autoCompleteAuthentication(String value) {
+            AutoCompletionCandidates candidates = new AutoCompletionCandidates();
+            for (String keyName : HttpRequestGlobalConfig.get().getAuthenticationIndex().search(value, MAX_LISTED_AUTHENTICATIONS)) {
+                candidates.add(keyName);
+            }
+            return candidates;
+        }
+
+        public static FormValidation checkAuthentication(String value) {
+            if (Strings.isNullOrEmpty(value)
+                    || HttpRequestGlobalConfig.get().getAuthenticationIndex().get(value) != null) {
+                return FormValidation.ok();
+            }
+            return FormValidation.error("Authentication '" + value + "' doesn't exist");
+        }
+
         public FormValidation doCheckUrl(@QueryParameter String value)
                 throws IOException, ServletException {
             return FormValidation.ok();
@@ -459,16 +1376,7 @@ public class HttpRequest extends Builder {
         }
 
         public static FormValidation validateKeyName(String value) {
-            List<Authenticator> list = HttpRequestGlobalConfig.get().getAuthentications();
-
-            int count = 0;
-            for (Authenticator basicAuthentication : list) {
-                if (basicAuthentication.getKeyName().equals(value)) {
-                    count++;
-                }
-            }
-
-            if (count > 1) {
+            if (HttpRequestGlobalConfig.get().getAuthenticationIndex().isDuplicate(value)) {
                 return FormValidation.error("The Key Name must be unique");
             }
 
@@ -511,13 +1419,76 @@ public class HttpRequest extends Builder {
             return checkValidResponseCodes(value);
         }
 
+        public FormValidation doCheckValidResponsePatterns(@QueryParameter String value) {
+            return checkValidResponsePatterns(value);
+        }
+
+        public FormValidation doCheckConnectTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckReadTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckLeaseTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckTotalTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMaxAttempts(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckMaxResumes(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckDownloadSegments(@QueryParameter String value) {
+            return checkDownloadSegments(value);
+        }
+
+        public static FormValidation checkDownloadSegments(String value) {
+            FormValidation validation = FormValidation.validatePositiveInteger(value);
+            if (validation.kind != FormValidation.Kind.OK) {
+                return validation;
+            }
+            int max = getMaxDownloadSegments();
+            if (Integer.parseInt(value) > max) {
+                return FormValidation.warning("At most " + max + " segments are downloaded at once");
+            }
+            return validation;
+        }
+
+        public FormValidation doCheckRetryResponseCodes(@QueryParameter String value) {
+            return checkValidResponseCodes(value);
+        }
+
+        public FormValidation doCheckRetryDelay(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public static FormValidation checkValidResponsePatterns(String value) {
+            for (String pattern : ResponseContentMatcher.splitLines(value)) {
+                try {
+                    Pattern.compile(pattern);
+                } catch (PatternSyntaxException e) {
+                    return FormValidation.error("Response pattern '" + pattern + "' is wrong. " + e.getDescription());
+                }
+            }
+            return FormValidation.ok();
+        }
+
         public static FormValidation checkValidResponseCodes(String value) {
             if (value == null || value.trim().isEmpty()) {
                 return FormValidation.ok();
             }
 
             try {
-                parseToRange(value);
+                ResponseCodeMatcher.compile(value);
             } catch (IllegalArgumentException iae) {
                 return FormValidation.error("Response codes expected is wrong. "+iae.getMessage());
             }
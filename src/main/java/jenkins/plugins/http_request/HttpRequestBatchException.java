@@ -0,0 +1,29 @@
+package jenkins.plugins.http_request;
+
+import hudson.AbortException;
+
+import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
+
+/**
+ * Fails an {@link HttpRequestBatchStep} some requests of which failed, along with
+ * the responses of the requests which didn't.
+ */
+public class HttpRequestBatchException extends AbortException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final HttpRequestBatchResult result;
+
+    HttpRequestBatchException(String message, HttpRequestBatchResult result) {
+        super(message);
+        this.result = result;
+    }
+
+    /**
+     * @return the result of every request, the response of a failed request is null
+     */
+    @Whitelisted
+    public HttpRequestBatchResult getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,91 @@
+package jenkins.plugins.http_request;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
+
+/**
+ * The responses of an {@link HttpRequestBatchStep}, in the order of the requests,
+ * along with the failures and the time taken by the batch and by each request.
+ */
+class HttpRequestBatchResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<ResponseContentSupplier> responses;
+    private final List<String> failures;
+    private final List<Long> requestTimes;
+    private final long elapsedTime;
+
+    /**
+     * @param responses null for a failed request
+     * @param failures why each request failed, null for a request which didn't
+     */
+    HttpRequestBatchResult(List<ResponseContentSupplier> responses, List<String> failures, long[] requestTimes, long elapsedTime) {
+        this.responses = new ArrayList<>(responses);
+        this.failures = new ArrayList<>(failures);
+        this.requestTimes = new ArrayList<>(requestTimes.length);
+        for (long requestTime : requestTimes) {
+            this.requestTimes.add(requestTime);
+        }
+        this.elapsedTime = elapsedTime;
+    }
+
+    @Whitelisted
+    public List<ResponseContentSupplier> getResponses() {
+        return Collections.unmodifiableList(responses);
+    }
+
+    /**
+     * @return why each request failed, in the order of the requests, null for a request which didn't
+     */
+    @Whitelisted
+    public List<String> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return the time taken by each request in milliseconds, in the order of the requests
+     */
+    @Whitelisted
+    public List<Long> getRequestTimes() {
+        return Collections.unmodifiableList(requestTimes);
+    }
+
+    /**
+     * @return the time taken by the whole batch in milliseconds
+     */
+    @Whitelisted
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    @Whitelisted
+    public long getMaxRequestTime() {
+        long max = 0;
+        for (long requestTime : requestTimes) {
+            max = Math.max(max, requestTime);
+        }
+        return max;
+    }
+
+    @Whitelisted
+    public long getAverageRequestTime() {
+        if (requestTimes.isEmpty()) {
+            return 0;
+        }
+        long total = 0;
+        for (long requestTime : requestTimes) {
+            total += requestTime;
+        }
+        return total / requestTimes.size();
+    }
+
+    @Override
+    public String toString() {
+        return "Requests: " + responses.size() + ", Elapsed time: " + elapsedTime + " ms";
+    }
+}
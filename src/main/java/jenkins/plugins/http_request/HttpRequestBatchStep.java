@@ -0,0 +1,235 @@
+package jenkins.plugins.http_request;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Performs many HTTP requests concurrently, at most {@link #getMaxParallelism()} at a time,
+ * and returns all the responses once every request is done.
+ */
+public final class HttpRequestBatchStep extends AbstractStepImpl {
+
+    private final @Nonnull List<HttpRequestStep> requests;
+    private Integer maxParallelism = DescriptorImpl.maxParallelism;
+
+    @DataBoundConstructor
+    public HttpRequestBatchStep(List<HttpRequestStep> requests) {
+        this.requests = requests == null ? Collections.<HttpRequestStep>emptyList() : requests;
+    }
+
+    public List<HttpRequestStep> getRequests() {
+        return requests;
+    }
+
+    @DataBoundSetter
+    public void setMaxParallelism(Integer maxParallelism) {
+        this.maxParallelism = maxParallelism;
+    }
+
+    public Integer getMaxParallelism() {
+        return maxParallelism;
+    }
+
+    @Override
+    public DescriptorImpl getDescriptor() {
+        return (DescriptorImpl) super.getDescriptor();
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+        public static final int maxParallelism = 10;
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "httpRequestBatch";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Perform several HTTP Requests concurrently and return the response objects";
+        }
+
+        public FormValidation doCheckMaxParallelism(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+
+    public static final class Execution extends AbstractStepExecutionImpl {
+
+        private static final ExecutorService executorService = Executors.newCachedThreadPool(
+                new NamingThreadFactory(new DaemonThreadFactory(), "HttpRequestBatchStep.Execution"));
+
+        @Inject
+        private transient HttpRequestBatchStep step;
+
+        @StepContextParameter
+        private transient Run run;
+
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        private transient List<Future<?>> workers;
+
+        /**
+         * Set once the step is completed, by the last worker or by {@link #stop(Throwable)}, whichever comes first.
+         */
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        @Override
+        public boolean start() throws Exception {
+            final List<HttpRequest> httpRequests = new ArrayList<>();
+            for (HttpRequestStep request : step.requests) {
+                httpRequests.add(request.createHttpRequest());
+            }
+            final FilePath workspace = getContext().get(FilePath.class);
+            final int size = httpRequests.size();
+            if (size == 0) {
+                success(new HttpRequestBatchResult(Collections.<ResponseContentSupplier>emptyList(),
+                        Collections.<String>emptyList(), new long[0], 0));
+                return true;
+            }
+            final ResponseContentSupplier[] responses = new ResponseContentSupplier[size];
+            final long[] requestTimes = new long[size];
+            final String[] failures = new String[size];
+
+            final long startTime = System.currentTimeMillis();
+            final AtomicInteger next = new AtomicInteger();
+            final int parallelism = Math.max(1, Math.min(size,
+                    step.maxParallelism == null || step.maxParallelism <= 0 ? DescriptorImpl.maxParallelism : step.maxParallelism));
+            final AtomicInteger running = new AtomicInteger(parallelism);
+
+            workers = new ArrayList<>();
+            for (int i = 0; i < parallelism; i++) {
+                workers.add(executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            int index;
+                            while ((index = next.getAndIncrement()) < size && !Thread.currentThread().isInterrupted()) {
+                                long requestStart = System.currentTimeMillis();
+                                try {
+                                    responses[index] = step.requests.get(index).performHttpRequest(httpRequests.get(index), run, listener, workspace);
+                                } catch (Throwable e) {
+                                    // an error too, or the step would never complete
+                                    failures[index] = "Request " + (index + 1) + " to " + httpRequests.get(index).getUrl() + " failed: "
+                                            + (e instanceof Exception ? e.getMessage() : e.toString());
+                                }
+                                requestTimes[index] = System.currentTimeMillis() - requestStart;
+                            }
+                        } finally {
+                            if (running.decrementAndGet() == 0) {
+                                complete(responses, requestTimes, failures, System.currentTimeMillis() - startTime);
+                            }
+                        }
+                    }
+                }));
+            }
+            return false;
+        }
+
+        private void complete(ResponseContentSupplier[] responses, long[] requestTimes, String[] failures, long elapsedTime) {
+            List<String> messages = new ArrayList<>();
+            for (String failure : failures) {
+                if (failure != null) {
+                    messages.add(failure);
+                }
+            }
+            listener.getLogger().println("Batch of " + responses.length + " requests done in " + elapsedTime + " ms, "
+                    + messages.size() + " failed");
+            HttpRequestBatchResult result = new HttpRequestBatchResult(Arrays.asList(responses), Arrays.asList(failures),
+                    requestTimes, elapsedTime);
+            if (!messages.isEmpty()) {
+                StringBuilder message = new StringBuilder("Fail: " + messages.size() + " of " + responses.length + " requests failed");
+                for (String failure : messages) {
+                    message.append('\n').append(failure);
+                }
+                if (!failure(new HttpRequestBatchException(message.toString(), result))) {
+                    discardContent(responses);
+                }
+                return;
+            }
+            if (!success(result)) {
+                discardContent(responses);
+            }
+        }
+
+        /**
+         * Drops the bodies not read yet of a batch completed meanwhile, by {@link #stop(Throwable)}.
+         */
+        private static void discardContent(ResponseContentSupplier[] responses) {
+            for (ResponseContentSupplier response : responses) {
+                if (response != null) {
+                    response.discardContent();
+                }
+            }
+        }
+
+        /**
+         * @return false when the step was already completed
+         */
+        private boolean success(HttpRequestBatchResult result) {
+            if (completed.compareAndSet(false, true)) {
+                getContext().onSuccess(result);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return false when the step was already completed
+         */
+        private boolean failure(Throwable cause) {
+            if (completed.compareAndSet(false, true)) {
+                getContext().onFailure(cause);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            if (workers != null) {
+                for (Future<?> worker : workers) {
+                    worker.cancel(true);
+                }
+            }
+            failure(cause);
+        }
+
+        @Override
+        public void onResume() {
+            failure(new Exception("Resume after a restart not supported"));
+        }
+
+        private static final long serialVersionUID = 1L;
+
+    }
+}
@@ -4,23 +4,64 @@ import hudson.Extension;
 import hudson.XmlFile;
 import hudson.init.InitMilestone;
 import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import hudson.util.Secret;
 import hudson.util.XStream2;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.Jenkins;
 
+import jenkins.plugins.http_request.auth.AuthenticationIndex;
 import jenkins.plugins.http_request.auth.Authenticator;
 import jenkins.plugins.http_request.auth.BasicDigestAuthentication;
 import jenkins.plugins.http_request.auth.FormAuthentication;
+import jenkins.plugins.http_request.util.CircuitBreaker;
+import jenkins.plugins.http_request.util.Http2Transport;
+import jenkins.plugins.http_request.util.HttpClientUtil;
 import jenkins.plugins.http_request.util.HttpRequestNameValuePair;
+import jenkins.plugins.http_request.util.HttpRequestRouteLimit;
+import jenkins.plugins.http_request.util.HttpResponseCache;
+import jenkins.plugins.http_request.util.SSLSocketFactoryCache;
 
 import net.sf.json.JSONObject;
 
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.pool.ConnPoolControl;
 import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 /**
@@ -29,15 +70,81 @@ import org.kohsuke.stapler.StaplerRequest;
 @Extension
 public class HttpRequestGlobalConfig extends GlobalConfiguration {
 
+    public static final int DEFAULT_MAX_CONNECTIONS = 100;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    public static final int DEFAULT_CONNECTION_TIME_TO_LIVE = 0;
+    public static final int DEFAULT_CONNECTION_LEASE_TIMEOUT = 0;
+    public static final int DEFAULT_RESPONSE_MEMORY_THRESHOLD = 1024;
+    public static final int DEFAULT_CACHE_MAX_SIZE = 512;
+    public static final int DEFAULT_CACHE_MAX_ENTRIES = 1000;
+    public static final int DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 50;
+    public static final int DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = 20;
+    public static final int DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION = 30;
+
     private List<BasicDigestAuthentication> basicDigestAuthentications = new ArrayList<BasicDigestAuthentication>();
     private List<FormAuthentication> formAuthentications = new ArrayList<FormAuthentication>();
 
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private int connectionTimeToLive = DEFAULT_CONNECTION_TIME_TO_LIVE;
+    private int connectionLeaseTimeout = DEFAULT_CONNECTION_LEASE_TIMEOUT;
+    private List<HttpRequestRouteLimit> routeLimits = new ArrayList<HttpRequestRouteLimit>();
+
+    private int responseMemoryThreshold = DEFAULT_RESPONSE_MEMORY_THRESHOLD;
+
+    private boolean cacheEnabled;
+    private int cacheMaxSize = DEFAULT_CACHE_MAX_SIZE;
+    private int cacheMaxEntries = DEFAULT_CACHE_MAX_ENTRIES;
+
+    private boolean circuitBreakerEnabled;
+    private int circuitBreakerFailureRate = DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE;
+    private int circuitBreakerWindowSize = DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE;
+    private int circuitBreakerOpenDuration = DEFAULT_CIRCUIT_BREAKER_OPEN_DURATION;
+
+    private HttpProtocol protocol = HttpProtocol.HTTP_1_1;
+
+    private boolean trustAllCertificates = true;
+    private String trustStore;
+    private Secret trustStorePassword;
+
+    /**
+     * Connection pool shared by every request performed on this controller.
+     * Created lazily and closed by {@link #shutdownConnectionManager()}.
+     */
+    private transient PoolingClientConnectionManager connectionManager;
+    private transient int connectionManagerTimeToLive;
+    private transient SSLSocketFactory connectionManagerSocketFactory;
+    private transient List<HttpRoute> limitedRoutes;
+    /**
+     * Pools replaced by a time to live or trust settings change, closed once their
+     * leased connections are back.
+     */
+    private transient List<PoolingClientConnectionManager> retiredConnectionManagers;
+
+    private transient CloseableHttpAsyncClient asyncHttpClient;
+    private transient PoolingNHttpClientConnectionManager asyncConnectionManager;
+    private transient SSLIOSessionStrategy asyncSessionStrategy;
+    private transient Map<CloseableHttpAsyncClient, PoolingNHttpClientConnectionManager> retiredAsyncHttpClients;
+
+    private transient HttpResponseCache responseCache;
+
+    private transient volatile AuthenticationIndex authenticationIndex;
+
+    private static final Logger LOGGER = Logger.getLogger(HttpRequestGlobalConfig.class.getName());
+
     private static final XStream2 XSTREAM2 = new XStream2();
 
     public HttpRequestGlobalConfig() {
         load();
     }
 
+    @Override
+    public synchronized void load() {
+        super.load();
+        rebuildAuthenticationIndex();
+        applyCircuitBreakerSettings();
+    }
+
     @Initializer(before = InitMilestone.PLUGINS_STARTED)
     public static void xStreamCompatibility() {
         XSTREAM2.addCompatibilityAlias("jenkins.plugins.http_request.HttpRequest$DescriptorImpl", HttpRequestGlobalConfig.class);
@@ -57,8 +164,15 @@ public class HttpRequestGlobalConfig extends GlobalConfiguration {
     public boolean configure(StaplerRequest req, JSONObject json)
     throws FormException
     {
+        routeLimits = new ArrayList<HttpRequestRouteLimit>();
         req.bindJSON(this, json);
+        rebuildAuthenticationIndex();
         save();
+        applyConnectionPoolSettings();
+        applyCacheSettings();
+        applyCircuitBreakerSettings();
+        FormAuthentication.invalidateSessions();
+        BasicDigestAuthentication.invalidateAuthCaches();
         return true;
     }
 
@@ -66,6 +180,281 @@ public class HttpRequestGlobalConfig extends GlobalConfiguration {
         return GlobalConfiguration.all().get(HttpRequestGlobalConfig.class);
     }
 
+    public synchronized ClientConnectionManager getConnectionManager() {
+        if (connectionManager == null) {
+            connectionManagerTimeToLive = connectionTimeToLive;
+            connectionManager = new PoolingClientConnectionManager(SchemeRegistryFactory.createSystemDefault(),
+                    connectionTimeToLive, TimeUnit.SECONDS);
+            applyConnectionPoolSettings();
+        }
+        return connectionManager;
+    }
+
+    /**
+     * @return the cache of GET responses, null when it is disabled
+     */
+    public synchronized HttpResponseCache getResponseCache() {
+        if (!cacheEnabled) {
+            return null;
+        }
+        if (responseCache == null) {
+            Jenkins j = Jenkins.getInstance();
+            if (j == null) return null;
+            responseCache = new HttpResponseCache(new File(j.getRootDir(), "http-request-cache"),
+                    cacheMaxSize * 1024L * 1024L, cacheMaxEntries);
+        }
+        return responseCache;
+    }
+
+    private synchronized void applyCacheSettings() {
+        if (responseCache != null) {
+            responseCache.setLimits(cacheMaxSize * 1024L * 1024L, cacheMaxEntries);
+        }
+    }
+
+    private void applyCircuitBreakerSettings() {
+        CircuitBreaker.configure(circuitBreakerEnabled ? circuitBreakerFailureRate : 0, circuitBreakerWindowSize,
+                TimeUnit.SECONDS.toMillis(circuitBreakerOpenDuration));
+    }
+
+    /**
+     * @return the circuit breakers of the hosts requested since the configuration was saved
+     */
+    public List<CircuitBreaker> getCircuitBreakers() {
+        return CircuitBreaker.getAll();
+    }
+
+    /**
+     * Creates a client backed by the shared connection pool.
+     */
+    public DefaultHttpClient createHttpClient() throws IOException {
+        SSLSocketFactory socketFactory = SSLSocketFactoryCache.get(trustAllCertificates, trustStore,
+                Secret.toString(trustStorePassword));
+        DefaultHttpClient client = new HttpClientUtil().createHttpClient(getConnectionManager(socketFactory));
+        if (connectionLeaseTimeout > 0) {
+            client.getParams().setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, connectionLeaseTimeout * 1000L);
+        }
+        return client;
+    }
+
+    /**
+     * @param protocol of the request, {@link HttpProtocol#NOT_SET} for the default one
+     * @return the transport sending the request over HTTP/2, null for HTTP/1.1
+     */
+    public Http2Transport getHttp2Transport(HttpProtocol protocol) throws IOException {
+        if (protocol == null || protocol == HttpProtocol.NOT_SET) {
+            protocol = getProtocol();
+        }
+        if (protocol == HttpProtocol.HTTP_1_1) {
+            return null;
+        }
+        return new Http2Transport(SSLSocketFactoryCache.getHttp2Client(trustAllCertificates, trustStore,
+                Secret.toString(trustStorePassword)), protocol == HttpProtocol.H2C);
+    }
+
+    /**
+     * @return the shared pool, its HTTPS connections made by the cached socket factory of
+     * the current trust settings; when those settings change the pool is retired, so no
+     * connection made with the previous ones is reused
+     */
+    private synchronized ClientConnectionManager getConnectionManager(SSLSocketFactory socketFactory) {
+        if (connectionManager != null && connectionManagerSocketFactory != null
+                && connectionManagerSocketFactory != socketFactory) {
+            retireConnectionManager();
+        }
+        ClientConnectionManager manager = getConnectionManager();
+        if (connectionManagerSocketFactory != socketFactory) {
+            manager.getSchemeRegistry().register(new Scheme("https", 443, socketFactory));
+            connectionManagerSocketFactory = socketFactory;
+        }
+        return manager;
+    }
+
+    /**
+     * Client for requests completed from a callback instead of a waiting thread.
+     * It shares the pool settings and the cached SSL context of the blocking client.
+     */
+    public synchronized CloseableHttpAsyncClient getAsyncHttpClient() throws IOException {
+        SSLIOSessionStrategy sessionStrategy = SSLSocketFactoryCache.getSessionStrategy(trustAllCertificates, trustStore,
+                Secret.toString(trustStorePassword));
+        if (asyncHttpClient != null && asyncSessionStrategy != sessionStrategy) {
+            // the session strategy is fixed when the client is created
+            retireAsyncHttpClient();
+        }
+        if (asyncHttpClient == null) {
+            Registry<SchemeIOSessionStrategy> sessionStrategies = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                    .register("http", NoopIOSessionStrategy.INSTANCE)
+                    .register("https", sessionStrategy)
+                    .build();
+            asyncConnectionManager = new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT), sessionStrategies);
+            asyncSessionStrategy = sessionStrategy;
+            asyncHttpClient = HttpAsyncClients.custom()
+                    .setConnectionManager(asyncConnectionManager)
+                    .useSystemProperties()
+                    .build();
+            asyncHttpClient.start();
+            applyConnectionPoolSettings();
+        }
+        return asyncHttpClient;
+    }
+
+    private synchronized void applyConnectionPoolSettings() {
+        if (connectionManager != null && connectionManagerTimeToLive != connectionTimeToLive) {
+            // the time to live is fixed when a pool is created
+            retireConnectionManager();
+            getConnectionManager();
+            return;
+        }
+
+        Map<HttpRoute, Integer> routeMaxConnections = new LinkedHashMap<HttpRoute, Integer>();
+        for (HttpRequestRouteLimit routeLimit : routeLimits) {
+            try {
+                for (HttpRoute route : routeLimit.getRoutes()) {
+                    routeMaxConnections.put(route, routeLimit.getMaxConnections());
+                }
+            } catch (MalformedURLException e) {
+                // rejected by the form validation, nothing to limit
+            }
+        }
+
+        if (connectionManager != null) {
+            applyConnectionPoolSettings(connectionManager, routeMaxConnections);
+        }
+        if (asyncConnectionManager != null) {
+            applyConnectionPoolSettings(asyncConnectionManager, routeMaxConnections);
+        }
+        limitedRoutes = new ArrayList<HttpRoute>(routeMaxConnections.keySet());
+    }
+
+    private void applyConnectionPoolSettings(ConnPoolControl<HttpRoute> pool, Map<HttpRoute, Integer> routeMaxConnections) {
+        pool.setMaxTotal(maxConnections);
+        pool.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        if (limitedRoutes != null) {
+            for (HttpRoute route : limitedRoutes) {
+                pool.setMaxPerRoute(route, maxConnectionsPerRoute);
+            }
+        }
+        for (Map.Entry<HttpRoute, Integer> routeLimit : routeMaxConnections.entrySet()) {
+            pool.setMaxPerRoute(routeLimit.getKey(), routeLimit.getValue());
+        }
+    }
+
+    private synchronized void retireConnectionManager() {
+        if (retiredConnectionManagers == null) {
+            retiredConnectionManagers = new ArrayList<PoolingClientConnectionManager>();
+        }
+        connectionManager.closeIdleConnections(0, TimeUnit.SECONDS);
+        retiredConnectionManagers.add(connectionManager);
+        connectionManager = null;
+        connectionManagerSocketFactory = null;
+    }
+
+    private synchronized void retireAsyncHttpClient() {
+        if (retiredAsyncHttpClients == null) {
+            retiredAsyncHttpClients = new LinkedHashMap<CloseableHttpAsyncClient, PoolingNHttpClientConnectionManager>();
+        }
+        asyncConnectionManager.closeIdleConnections(0, TimeUnit.SECONDS);
+        retiredAsyncHttpClients.put(asyncHttpClient, asyncConnectionManager);
+        asyncHttpClient = null;
+        asyncConnectionManager = null;
+    }
+
+    private synchronized void evictConnections() {
+        if (connectionManager != null) {
+            connectionManager.closeExpiredConnections();
+        }
+        if (asyncConnectionManager != null) {
+            asyncConnectionManager.closeExpiredConnections();
+        }
+        if (retiredConnectionManagers != null) {
+            List<PoolingClientConnectionManager> inUse = new ArrayList<PoolingClientConnectionManager>();
+            for (PoolingClientConnectionManager retired : retiredConnectionManagers) {
+                retired.closeIdleConnections(0, TimeUnit.SECONDS);
+                if (retired.getTotalStats().getLeased() == 0) {
+                    retired.shutdown();
+                } else {
+                    inUse.add(retired);
+                }
+            }
+            retiredConnectionManagers = inUse;
+        }
+        if (retiredAsyncHttpClients != null) {
+            Iterator<Map.Entry<CloseableHttpAsyncClient, PoolingNHttpClientConnectionManager>> retired =
+                    retiredAsyncHttpClients.entrySet().iterator();
+            while (retired.hasNext()) {
+                Map.Entry<CloseableHttpAsyncClient, PoolingNHttpClientConnectionManager> entry = retired.next();
+                entry.getValue().closeIdleConnections(0, TimeUnit.SECONDS);
+                if (entry.getValue().getTotalStats().getLeased() == 0) {
+                    closeQuietly(entry.getKey());
+                    retired.remove();
+                }
+            }
+        }
+    }
+
+    private synchronized void closeConnectionManager() {
+        if (connectionManager != null) {
+            connectionManager.shutdown();
+            connectionManager = null;
+            connectionManagerSocketFactory = null;
+        }
+        if (retiredConnectionManagers != null) {
+            for (PoolingClientConnectionManager retired : retiredConnectionManagers) {
+                retired.shutdown();
+            }
+            retiredConnectionManagers = null;
+        }
+        if (asyncHttpClient != null) {
+            closeQuietly(asyncHttpClient);
+            asyncHttpClient = null;
+            asyncConnectionManager = null;
+        }
+        if (retiredAsyncHttpClients != null) {
+            for (CloseableHttpAsyncClient retired : retiredAsyncHttpClients.keySet()) {
+                closeQuietly(retired);
+            }
+            retiredAsyncHttpClients = null;
+        }
+    }
+
+    private static void closeQuietly(CloseableHttpAsyncClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing the asynchronous HTTP client", e);
+        }
+    }
+
+    @Terminator
+    public static void shutdownConnectionManager() {
+        HttpRequestGlobalConfig config = get();
+        if (config != null) {
+            config.closeConnectionManager();
+        }
+    }
+
+    @Extension
+    public static class ConnectionEvictor extends AsyncPeriodicWork {
+
+        public ConnectionEvictor() {
+            super("HTTP Request connection evictor");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return MIN;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            HttpRequestGlobalConfig config = get();
+            if (config != null) {
+                config.evictConnections();
+            }
+        }
+    }
+
     public List<BasicDigestAuthentication> getBasicDigestAuthentications() {
         return basicDigestAuthentications;
     }
@@ -73,6 +462,8 @@ public class HttpRequestGlobalConfig extends GlobalConfiguration {
     public void setBasicDigestAuthentications(
             List<BasicDigestAuthentication> basicDigestAuthentications) {
         this.basicDigestAuthentications = basicDigestAuthentications;
+        rebuildAuthenticationIndex();
+        BasicDigestAuthentication.invalidateAuthCaches();
     }
 
     public List<FormAuthentication> getFormAuthentications() {
@@ -82,21 +473,252 @@ public class HttpRequestGlobalConfig extends GlobalConfiguration {
     public void setFormAuthentications(
             List<FormAuthentication> formAuthentications) {
         this.formAuthentications = formAuthentications;
+        rebuildAuthenticationIndex();
+        // the login actions of a key may have changed
+        FormAuthentication.invalidateSessions();
     }
 
-    public List<Authenticator> getAuthentications() {
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public int getConnectionTimeToLive() {
+        return connectionTimeToLive;
+    }
+
+    public void setConnectionTimeToLive(int connectionTimeToLive) {
+        this.connectionTimeToLive = connectionTimeToLive;
+    }
+
+    public int getConnectionLeaseTimeout() {
+        return connectionLeaseTimeout;
+    }
+
+    public void setConnectionLeaseTimeout(int connectionLeaseTimeout) {
+        this.connectionLeaseTimeout = connectionLeaseTimeout;
+    }
+
+    /**
+     * @return the size in KB over which a response is kept in a file rather than in memory, 0 to always keep it in memory
+     */
+    public int getResponseMemoryThreshold() {
+        return responseMemoryThreshold;
+    }
+
+    public void setResponseMemoryThreshold(int responseMemoryThreshold) {
+        this.responseMemoryThreshold = responseMemoryThreshold;
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    /**
+     * @return the size in MB of the response cache
+     */
+    public int getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public void setCacheMaxSize(int cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    public boolean isCircuitBreakerEnabled() {
+        return circuitBreakerEnabled;
+    }
+
+    public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+        applyCircuitBreakerSettings();
+    }
+
+    /**
+     * @return percentage of failed requests to a host which opens its circuit breaker
+     */
+    public int getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+
+    public void setCircuitBreakerFailureRate(int circuitBreakerFailureRate) {
+        this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+        applyCircuitBreakerSettings();
+    }
+
+    /**
+     * @return number of the last requests to a host the failure rate is computed on
+     */
+    public int getCircuitBreakerWindowSize() {
+        return circuitBreakerWindowSize;
+    }
+
+    public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+        this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+        applyCircuitBreakerSettings();
+    }
+
+    /**
+     * @return seconds an open circuit breaker rejects requests before letting a probe through
+     */
+    public int getCircuitBreakerOpenDuration() {
+        return circuitBreakerOpenDuration;
+    }
+
+    public void setCircuitBreakerOpenDuration(int circuitBreakerOpenDuration) {
+        this.circuitBreakerOpenDuration = circuitBreakerOpenDuration;
+        applyCircuitBreakerSettings();
+    }
+
+    public List<HttpRequestRouteLimit> getRouteLimits() {
+        return routeLimits;
+    }
+
+    public void setRouteLimits(List<HttpRequestRouteLimit> routeLimits) {
+        this.routeLimits = routeLimits == null ? new ArrayList<HttpRequestRouteLimit>() : routeLimits;
+    }
+
+    public FormValidation doCheckMaxConnections(@QueryParameter String value) {
+        return FormValidation.validatePositiveInteger(value);
+    }
+
+    public FormValidation doCheckMaxConnectionsPerRoute(@QueryParameter String value) {
+        return FormValidation.validatePositiveInteger(value);
+    }
+
+    public FormValidation doCheckConnectionTimeToLive(@QueryParameter String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    public FormValidation doCheckConnectionLeaseTimeout(@QueryParameter String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    public FormValidation doCheckResponseMemoryThreshold(@QueryParameter String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    public FormValidation doCheckCacheMaxSize(@QueryParameter String value) {
+        return FormValidation.validatePositiveInteger(value);
+    }
+
+    public FormValidation doCheckCacheMaxEntries(@QueryParameter String value) {
+        return FormValidation.validatePositiveInteger(value);
+    }
+
+    public FormValidation doCheckCircuitBreakerFailureRate(@QueryParameter String value) {
+        FormValidation validation = FormValidation.validatePositiveInteger(value);
+        if (validation.kind == FormValidation.Kind.OK && Integer.parseInt(value) > 100) {
+            return FormValidation.error("Not a percentage");
+        }
+        return validation;
+    }
+
+    public FormValidation doCheckCircuitBreakerWindowSize(@QueryParameter String value) {
+        return FormValidation.validatePositiveInteger(value);
+    }
+
+    public FormValidation doCheckCircuitBreakerOpenDuration(@QueryParameter String value) {
+        return FormValidation.validateNonNegativeInteger(value);
+    }
+
+    /**
+     * @return the protocol of the requests which don't set one
+     */
+    public HttpProtocol getProtocol() {
+        return protocol == null || protocol == HttpProtocol.NOT_SET ? HttpProtocol.HTTP_1_1 : protocol;
+    }
+
+    public void setProtocol(HttpProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    public ListBoxModel doFillProtocolItems() {
+        return HttpProtocol.getDefaultFillItems();
+    }
+
+    public boolean isTrustAllCertificates() {
+        return trustAllCertificates;
+    }
+
+    public void setTrustAllCertificates(boolean trustAllCertificates) {
+        this.trustAllCertificates = trustAllCertificates;
+    }
+
+    public String getTrustStore() {
+        return trustStore;
+    }
+
+    public void setTrustStore(String trustStore) {
+        this.trustStore = trustStore;
+    }
+
+    public Secret getTrustStorePassword() {
+        return trustStorePassword;
+    }
+
+    public void setTrustStorePassword(Secret trustStorePassword) {
+        this.trustStorePassword = trustStorePassword;
+    }
+
+    public FormValidation doCheckTrustStore(@QueryParameter String value) {
+        // tells whether a file exists on the controller
+        if (!Jenkins.getInstance().hasPermission(Jenkins.ADMINISTER) || value == null || value.trim().isEmpty()) {
+            return FormValidation.ok();
+        }
+        if (!new File(value.trim()).isFile()) {
+            return FormValidation.error("Trust store not found");
+        }
+        return FormValidation.ok();
+    }
+
+    private void rebuildAuthenticationIndex() {
         List<Authenticator> list = new ArrayList<Authenticator>();
-        list.addAll(basicDigestAuthentications);
-        list.addAll(formAuthentications);
-        return list;
+        if (basicDigestAuthentications != null) {
+            list.addAll(basicDigestAuthentications);
+        }
+        if (formAuthentications != null) {
+            list.addAll(formAuthentications);
+        }
+        authenticationIndex = new AuthenticationIndex(list);
+    }
+
+    /**
+     * @return the snapshot of the authentications, replaced when they change
+     */
+    public AuthenticationIndex getAuthenticationIndex() {
+        AuthenticationIndex index = authenticationIndex;
+        return index == null ? AuthenticationIndex.EMPTY : index;
+    }
+
+    public List<Authenticator> getAuthentications() {
+        return getAuthenticationIndex().getAuthenticators();
     }
 
     public Authenticator getAuthentication(String keyName) {
-        for (Authenticator authenticator : getAuthentications()) {
-            if (authenticator.getKeyName().equals(keyName)) {
-                return authenticator;
-            }
-        }
-        return null;
+        return getAuthenticationIndex().get(keyName);
     }
 }
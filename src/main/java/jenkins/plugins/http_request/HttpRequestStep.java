@@ -1,14 +1,20 @@
 package jenkins.plugins.http_request;
 
 import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AutoCompletionCandidates;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.util.FormValidation;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.ListBoxModel;
+import hudson.util.NamingThreadFactory;
+import jenkins.plugins.http_request.util.HttpRequestFormDataPart;
 import jenkins.plugins.http_request.util.HttpRequestNameValuePair;
+import org.apache.http.concurrent.FutureCallback;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
 import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
-import org.jenkinsci.plugins.workflow.steps.AbstractSynchronousNonBlockingStepExecution;
 import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
@@ -16,8 +22,13 @@ import org.kohsuke.stapler.QueryParameter;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Martin d'Anjou
@@ -28,13 +39,35 @@ public final class HttpRequestStep extends AbstractStepImpl {
     private HttpMode httpMode                 = DescriptorImpl.httpMode;
     private String validResponseCodes         = DescriptorImpl.validResponseCodes;
     private String validResponseContent       = DescriptorImpl.validResponseContent;
+    private String invalidResponseContent     = DescriptorImpl.invalidResponseContent;
+    private String validResponsePatterns      = DescriptorImpl.validResponsePatterns;
     private MimeType acceptType               = DescriptorImpl.acceptType;
     private MimeType contentType              = DescriptorImpl.contentType;
     private Integer timeout                   = DescriptorImpl.timeout;
+    private Integer connectTimeout            = DescriptorImpl.connectTimeout;
+    private Integer readTimeout               = DescriptorImpl.readTimeout;
+    private Integer leaseTimeout              = DescriptorImpl.leaseTimeout;
+    private Integer totalTimeout              = DescriptorImpl.totalTimeout;
+    private Integer maxAttempts               = DescriptorImpl.maxAttempts;
+    private String retryResponseCodes         = DescriptorImpl.retryResponseCodes;
+    private Integer retryDelay                = DescriptorImpl.retryDelay;
+    private Boolean retryNonIdempotent        = DescriptorImpl.retryNonIdempotent;
+    private Integer maxResumes                = DescriptorImpl.maxResumes;
+    private Integer downloadSegments          = DescriptorImpl.downloadSegments;
+    private DigestAlgorithm digestAlgorithm   = DescriptorImpl.digestAlgorithm;
+    private String expectedDigest             = DescriptorImpl.expectedDigest;
+    private HttpProtocol protocol             = DescriptorImpl.protocol;
+    private Boolean compressRequestBody       = DescriptorImpl.compressRequestBody;
+    private Boolean runOnAgent                = DescriptorImpl.runOnAgent;
     private Boolean consoleLogResponseBody    = DescriptorImpl.consoleLogResponseBody;
     private String authentication             = DescriptorImpl.authentication;
     private String requestBody                = DescriptorImpl.requestBody;
     private List<HttpRequestNameValuePair> customHeaders = DescriptorImpl.customHeaders;
+    private List<HttpRequestFormDataPart> formData = DescriptorImpl.formData;
+    private String outputFile                 = DescriptorImpl.outputFile;
+    private String uploadFile                 = DescriptorImpl.uploadFile;
+    private Boolean async                     = DescriptorImpl.async;
+    private Boolean lazyContent               = DescriptorImpl.lazyContent;
 
     @DataBoundConstructor
     public HttpRequestStep(String url) {
@@ -72,6 +105,24 @@ public final class HttpRequestStep extends AbstractStepImpl {
         return validResponseContent;
     }
 
+    @DataBoundSetter
+    public void setInvalidResponseContent(String invalidResponseContent) {
+        this.invalidResponseContent = invalidResponseContent;
+    }
+
+    public String getInvalidResponseContent() {
+        return invalidResponseContent;
+    }
+
+    @DataBoundSetter
+    public void setValidResponsePatterns(String validResponsePatterns) {
+        this.validResponsePatterns = validResponsePatterns;
+    }
+
+    public String getValidResponsePatterns() {
+        return validResponsePatterns;
+    }
+
     @DataBoundSetter
     public void setAcceptType(MimeType acceptType) {
         this.acceptType = acceptType;
@@ -99,6 +150,141 @@ public final class HttpRequestStep extends AbstractStepImpl {
         return timeout;
     }
 
+    @DataBoundSetter
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @DataBoundSetter
+    public void setReadTimeout(Integer readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public Integer getReadTimeout() {
+        return readTimeout;
+    }
+
+    @DataBoundSetter
+    public void setLeaseTimeout(Integer leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    public Integer getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    @DataBoundSetter
+    public void setTotalTimeout(Integer totalTimeout) {
+        this.totalTimeout = totalTimeout;
+    }
+
+    public Integer getTotalTimeout() {
+        return totalTimeout;
+    }
+
+    @DataBoundSetter
+    public void setMaxAttempts(Integer maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public Integer getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    @DataBoundSetter
+    public void setRetryResponseCodes(String retryResponseCodes) {
+        this.retryResponseCodes = retryResponseCodes;
+    }
+
+    public String getRetryResponseCodes() {
+        return retryResponseCodes;
+    }
+
+    @DataBoundSetter
+    public void setRetryDelay(Integer retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    public Integer getRetryDelay() {
+        return retryDelay;
+    }
+
+    @DataBoundSetter
+    public void setRetryNonIdempotent(Boolean retryNonIdempotent) {
+        this.retryNonIdempotent = retryNonIdempotent;
+    }
+
+    @DataBoundSetter
+    public void setMaxResumes(Integer maxResumes) {
+        this.maxResumes = maxResumes;
+    }
+
+    @DataBoundSetter
+    public void setDownloadSegments(Integer downloadSegments) {
+        this.downloadSegments = downloadSegments;
+    }
+
+    @DataBoundSetter
+    public void setDigestAlgorithm(DigestAlgorithm digestAlgorithm) {
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    @DataBoundSetter
+    public void setExpectedDigest(String expectedDigest) {
+        this.expectedDigest = expectedDigest;
+    }
+
+    @DataBoundSetter
+    public void setProtocol(HttpProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    @DataBoundSetter
+    public void setCompressRequestBody(Boolean compressRequestBody) {
+        this.compressRequestBody = compressRequestBody;
+    }
+
+    @DataBoundSetter
+    public void setRunOnAgent(Boolean runOnAgent) {
+        this.runOnAgent = runOnAgent;
+    }
+
+    public Boolean getRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+    public Integer getMaxResumes() {
+        return maxResumes;
+    }
+
+    public Integer getDownloadSegments() {
+        return downloadSegments;
+    }
+
+    public DigestAlgorithm getDigestAlgorithm() {
+        return digestAlgorithm;
+    }
+
+    public String getExpectedDigest() {
+        return expectedDigest;
+    }
+
+    public HttpProtocol getProtocol() {
+        return protocol;
+    }
+
+    public Boolean getCompressRequestBody() {
+        return compressRequestBody;
+    }
+
+    public Boolean getRunOnAgent() {
+        return runOnAgent;
+    }
+
     @DataBoundSetter
     public void setConsoleLogResponseBody(Boolean consoleLogResponseBody) {
         this.consoleLogResponseBody = consoleLogResponseBody;
@@ -131,10 +317,106 @@ public final class HttpRequestStep extends AbstractStepImpl {
         this.customHeaders = customHeaders;
     }
 
+    @DataBoundSetter
+    public void setFormData(List<HttpRequestFormDataPart> formData) {
+        this.formData = formData;
+    }
+
     public List<HttpRequestNameValuePair> getCustomHeaders() {
         return customHeaders;
     }
 
+    public List<HttpRequestFormDataPart> getFormData() {
+        return formData;
+    }
+
+    @DataBoundSetter
+    public void setOutputFile(String outputFile) {
+        this.outputFile = outputFile;
+    }
+
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    @DataBoundSetter
+    public void setUploadFile(String uploadFile) {
+        this.uploadFile = uploadFile;
+    }
+
+    public String getUploadFile() {
+        return uploadFile;
+    }
+
+    @DataBoundSetter
+    public void setAsync(Boolean async) {
+        this.async = async;
+    }
+
+    public Boolean getAsync() {
+        return async;
+    }
+
+    @DataBoundSetter
+    public void setLazyContent(Boolean lazyContent) {
+        this.lazyContent = lazyContent;
+    }
+
+    public Boolean getLazyContent() {
+        return lazyContent;
+    }
+
+    /**
+     * @return the response, its body dropped unread when the content is lazy and nothing checked it
+     */
+    ResponseContentSupplier performHttpRequest(HttpRequest httpRequest, Run<?, ?> run, TaskListener listener, FilePath workspace)
+    throws InterruptedException, IOException
+    {
+        boolean lazy = Boolean.TRUE.equals(lazyContent);
+        ResponseContentSupplier response = httpRequest.performHttpRequest(run, listener, workspace, lazy);
+        if (lazy) {
+            // the response may be serialized as soon as the step returns, it can't hold the connection
+            response.discardContent();
+        }
+        return response;
+    }
+
+    HttpRequest createHttpRequest() {
+        HttpRequest httpRequest = new HttpRequest(url);
+        httpRequest.setHttpMode(httpMode);
+        httpRequest.setConsoleLogResponseBody(consoleLogResponseBody);
+        httpRequest.setValidResponseCodes(validResponseCodes);
+        httpRequest.setValidResponseContent(validResponseContent);
+        httpRequest.setInvalidResponseContent(invalidResponseContent);
+        httpRequest.setValidResponsePatterns(validResponsePatterns);
+        httpRequest.setAcceptType(acceptType);
+        httpRequest.setContentType(contentType);
+        httpRequest.setTimeout(timeout);
+        httpRequest.setConnectTimeout(connectTimeout);
+        httpRequest.setReadTimeout(readTimeout);
+        httpRequest.setLeaseTimeout(leaseTimeout);
+        httpRequest.setTotalTimeout(totalTimeout);
+        httpRequest.setMaxAttempts(maxAttempts);
+        httpRequest.setRetryResponseCodes(retryResponseCodes);
+        httpRequest.setRetryDelay(retryDelay);
+        httpRequest.setRetryNonIdempotent(retryNonIdempotent);
+        httpRequest.setMaxResumes(maxResumes);
+        httpRequest.setDownloadSegments(downloadSegments);
+        httpRequest.setDigestAlgorithm(digestAlgorithm);
+        httpRequest.setExpectedDigest(expectedDigest);
+        httpRequest.setProtocol(protocol);
+        httpRequest.setCompressRequestBody(compressRequestBody);
+        httpRequest.setRunOnAgent(runOnAgent);
+        httpRequest.setConsoleLogResponseBody(consoleLogResponseBody);
+        httpRequest.setAuthentication(authentication);
+        httpRequest.setRequestBody(requestBody);
+        httpRequest.setCustomHeaders(customHeaders);
+        httpRequest.setFormData(formData);
+        httpRequest.setOutputFile(outputFile);
+        httpRequest.setUploadFile(uploadFile);
+        return httpRequest;
+    }
+
     @Override
     public DescriptorImpl getDescriptor() {
         return (DescriptorImpl) super.getDescriptor();
@@ -144,13 +426,35 @@ public final class HttpRequestStep extends AbstractStepImpl {
         public static final HttpMode httpMode                  = HttpRequest.DescriptorImpl.httpMode;
         public static final String   validResponseCodes        = HttpRequest.DescriptorImpl.validResponseCodes;
         public static final String   validResponseContent      = HttpRequest.DescriptorImpl.validResponseContent;
+        public static final String   invalidResponseContent    = HttpRequest.DescriptorImpl.invalidResponseContent;
+        public static final String   validResponsePatterns     = HttpRequest.DescriptorImpl.validResponsePatterns;
         public static final MimeType acceptType                = HttpRequest.DescriptorImpl.acceptType;
         public static final MimeType contentType               = HttpRequest.DescriptorImpl.contentType;
         public static final int      timeout                   = HttpRequest.DescriptorImpl.timeout;
+        public static final int      connectTimeout            = HttpRequest.DescriptorImpl.connectTimeout;
+        public static final int      readTimeout               = HttpRequest.DescriptorImpl.readTimeout;
+        public static final int      leaseTimeout              = HttpRequest.DescriptorImpl.leaseTimeout;
+        public static final int      totalTimeout              = HttpRequest.DescriptorImpl.totalTimeout;
+        public static final int      maxAttempts               = HttpRequest.DescriptorImpl.maxAttempts;
+        public static final String   retryResponseCodes        = HttpRequest.DescriptorImpl.retryResponseCodes;
+        public static final int      retryDelay                = HttpRequest.DescriptorImpl.retryDelay;
+        public static final Boolean  retryNonIdempotent        = HttpRequest.DescriptorImpl.retryNonIdempotent;
+        public static final int      maxResumes                = HttpRequest.DescriptorImpl.maxResumes;
+        public static final int      downloadSegments          = HttpRequest.DescriptorImpl.downloadSegments;
+        public static final DigestAlgorithm digestAlgorithm    = HttpRequest.DescriptorImpl.digestAlgorithm;
+        public static final String   expectedDigest            = HttpRequest.DescriptorImpl.expectedDigest;
+        public static final HttpProtocol protocol              = HttpRequest.DescriptorImpl.protocol;
+        public static final Boolean  compressRequestBody       = HttpRequest.DescriptorImpl.compressRequestBody;
+        public static final Boolean  runOnAgent                = HttpRequest.DescriptorImpl.runOnAgent;
         public static final Boolean  consoleLogResponseBody    = HttpRequest.DescriptorImpl.consoleLogResponseBody;
         public static final String   authentication            = HttpRequest.DescriptorImpl.authentication;
         public static final String   requestBody               = HttpRequest.DescriptorImpl.requestBody;
         public static final List <HttpRequestNameValuePair> customHeaders = Collections.<HttpRequestNameValuePair>emptyList();
+        public static final List <HttpRequestFormDataPart> formData = Collections.<HttpRequestFormDataPart>emptyList();
+        public static final String   outputFile                = HttpRequest.DescriptorImpl.outputFile;
+        public static final String   uploadFile                = HttpRequest.DescriptorImpl.uploadFile;
+        public static final Boolean  async                     = false;
+        public static final Boolean  lazyContent               = false;
 
         public DescriptorImpl() {
             super(Execution.class);
@@ -178,10 +482,30 @@ public final class HttpRequestStep extends AbstractStepImpl {
             return MimeType.getContentTypeFillItems();
         }
 
+        public ListBoxModel doFillProtocolItems() {
+            return HttpProtocol.getFillItems();
+        }
+
+        public ListBoxModel doFillDigestAlgorithmItems() {
+            return DigestAlgorithm.getFillItems();
+        }
+
         public ListBoxModel doFillAuthenticationItems() {
             return HttpRequest.DescriptorImpl.fillAuthenticationItems();
         }
 
+        public AutoCompletionCandidates doAutoCompleteAuthentication(@QueryParameter String value) {
+            return HttpRequest.DescriptorImpl.autoCompleteAuthentication(value);
+        }
+
+        public FormValidation doCheckAuthentication(@QueryParameter String value) {
+            return HttpRequest.DescriptorImpl.checkAuthentication(value);
+        }
+
+        public boolean isAuthenticationSearchable() {
+            return HttpRequest.DescriptorImpl.isAuthenticationListTooLong();
+        }
+
         public FormValidation doValidateKeyName(@QueryParameter String value) {
             return HttpRequest.DescriptorImpl.validateKeyName(value);
         }
@@ -190,9 +514,57 @@ public final class HttpRequestStep extends AbstractStepImpl {
             return HttpRequest.DescriptorImpl.checkValidResponseCodes(value);
         }
 
+        public FormValidation doCheckValidResponsePatterns(@QueryParameter String value) {
+            return HttpRequest.DescriptorImpl.checkValidResponsePatterns(value);
+        }
+
+        public FormValidation doCheckConnectTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckReadTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckLeaseTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckTotalTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckMaxAttempts(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+
+        public FormValidation doCheckMaxResumes(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
+        public FormValidation doCheckDownloadSegments(@QueryParameter String value) {
+            return HttpRequest.DescriptorImpl.checkDownloadSegments(value);
+        }
+
+        public FormValidation doCheckRetryResponseCodes(@QueryParameter String value) {
+            return HttpRequest.DescriptorImpl.checkValidResponseCodes(value);
+        }
+
+        public FormValidation doCheckRetryDelay(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
     }
 
-    public static final class Execution extends AbstractSynchronousNonBlockingStepExecution<ResponseContentSupplier> {
+    /**
+     * Runs the request without blocking the CPS VM thread: a synchronous request
+     * runs on a thread of its own, an asynchronous one is handed to the shared
+     * non-blocking client and holds no thread while waiting for the response.
+     */
+    public static final class Execution extends AbstractStepExecutionImpl {
+
+        private static final ExecutorService executorService = Executors.newCachedThreadPool(
+                new NamingThreadFactory(new DaemonThreadFactory(), "HttpRequestStep.Execution"));
 
         @Inject
         private transient HttpRequestStep step;
@@ -203,22 +575,75 @@ public final class HttpRequestStep extends AbstractStepImpl {
         @StepContextParameter
         private transient TaskListener listener;
 
+        private transient Future<?> task;
+
+        /**
+         * Set once the step is completed, by the request or by {@link #stop(Throwable)}, whichever comes first.
+         */
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        @Override
+        public boolean start() throws Exception {
+            final HttpRequest httpRequest = step.createHttpRequest();
+            final FilePath workspace = getContext().get(FilePath.class);
+            if (Boolean.TRUE.equals(step.async)) {
+                task = httpRequest.performHttpRequestAsync(listener, new FutureCallback<ResponseContentSupplier>() {
+                    @Override
+                    public void completed(ResponseContentSupplier response) {
+                        success(response);
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        failure(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        // only cancelled by stop, which already failed the step
+                    }
+                });
+            } else {
+                task = executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            success(step.performHttpRequest(httpRequest, run, listener, workspace));
+                        } catch (Exception e) {
+                            failure(e);
+                        }
+                    }
+                });
+            }
+            return false;
+        }
+
+        private void success(ResponseContentSupplier response) {
+            if (completed.compareAndSet(false, true)) {
+                getContext().onSuccess(response);
+            } else {
+                // the step was stopped meanwhile
+                response.discardContent();
+            }
+        }
+
+        private void failure(Throwable cause) {
+            if (completed.compareAndSet(false, true)) {
+                getContext().onFailure(cause);
+            }
+        }
+
+        @Override
+        public void stop(@Nonnull Throwable cause) throws Exception {
+            if (task != null) {
+                task.cancel(true);
+            }
+            failure(cause);
+        }
+
         @Override
-        protected ResponseContentSupplier run() throws Exception {
-            HttpRequest httpRequest = new HttpRequest(step.url);
-            httpRequest.setHttpMode(step.httpMode);
-            httpRequest.setConsoleLogResponseBody(step.consoleLogResponseBody);
-            httpRequest.setValidResponseCodes(step.validResponseCodes);
-            httpRequest.setValidResponseContent(step.validResponseContent);
-            httpRequest.setAcceptType(step.acceptType);
-            httpRequest.setContentType(step.contentType);
-            httpRequest.setTimeout(step.timeout);
-            httpRequest.setConsoleLogResponseBody(step.consoleLogResponseBody);
-            httpRequest.setAuthentication(step.authentication);
-            httpRequest.setRequestBody(step.requestBody);
-            httpRequest.setCustomHeaders(step.customHeaders);
-            ResponseContentSupplier response = httpRequest.performHttpRequest(listener);
-            return response;
+        public void onResume() {
+            failure(new Exception("Resume after a restart not supported"));
         }
 
         private static final long serialVersionUID = 1L;
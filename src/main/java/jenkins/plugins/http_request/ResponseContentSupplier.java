@@ -1,10 +1,41 @@
 package jenkins.plugins.http_request;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import hudson.FilePath;
+import jenkins.plugins.http_request.util.BodyDigest;
+import jenkins.plugins.http_request.util.RequestDeadline;
+import jenkins.plugins.http_request.util.ResponseContentMatcher;
+import jenkins.plugins.http_request.util.ResumableDownload;
+import org.apache.commons.io.IOUtils;
+
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
 import org.apache.http.util.EntityUtils;
 
 import org.jenkinsci.plugins.scriptsecurity.sandbox.whitelists.Whitelisted;
@@ -20,8 +51,38 @@ class ResponseContentSupplier implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private static final int BUFFER_SIZE = 8192;
+
     private String content;
     private int status;
+    /**
+     * Body too large to be kept in memory, in the build directory, read back by the first {@link #getContent()}.
+     */
+    private File contentFile;
+    private String contentCharset;
+    private transient String contentFileContent;
+    /**
+     * Whether the body written to the output file was checked as it was written, see {@link #validateContent}.
+     */
+    private boolean contentChecked;
+    private String contentFailure;
+    /**
+     * Whether the body was dropped unread, see {@link #discardContent()}.
+     */
+    private boolean contentDiscarded;
+    private Map<String, List<String>> headers;
+    private int attempts = 1;
+    private String digest;
+    private String uploadDigest;
+
+    /**
+     * Response whose body is not read yet, see {@link #readContent()}.
+     */
+    private transient HttpResponse pendingResponse;
+    private transient HttpRequestBase pendingRequest;
+    private transient File spillDirectory;
+    private transient long memoryThreshold;
+    private transient RequestDeadline pendingDeadline;
 
     public ResponseContentSupplier(String content, int status) {
         this.content = content;
@@ -30,19 +91,303 @@ class ResponseContentSupplier implements Serializable {
 
     public ResponseContentSupplier(HttpResponse response) {
         this.status = response.getStatusLine().getStatusCode();
+        setHeaders(response);
         setContent(response);
     }
 
+    /**
+     * Only keeps the status and headers, the body is read by {@link #readContent()}, on the first
+     * {@link #getContent()}, or dropped by {@link #discardContent()}. The caller does either before
+     * the response leaves it: the body isn't read once this is serialized, and it holds a pooled
+     * connection until then.
+     * The body is kept in memory up to {@code memoryThreshold} bytes, a larger body is
+     * written to a file of {@code spillDirectory} as it is received.
+     *
+     * @param request aborted to discard the body
+     * @param spillDirectory may be null to always keep the body in memory
+     * @param memoryThreshold 0 to always keep the body in memory
+     */
+    public ResponseContentSupplier(HttpRequestBase request, HttpResponse response, File spillDirectory, long memoryThreshold) {
+        this.status = response.getStatusLine().getStatusCode();
+        setHeaders(response);
+        if (response.getEntity() != null) {
+            this.pendingRequest = request;
+            this.pendingResponse = response;
+            this.spillDirectory = spillDirectory;
+            this.memoryThreshold = memoryThreshold;
+        }
+    }
+
     @Whitelisted
     public int getStatus() {
         return status;
     }
 
+    /**
+     * @return how many times the request was sent to get this response
+     */
+    @Whitelisted
+    public int getAttempts() {
+        return Math.max(1, attempts);
+    }
+
+    void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return the digest of the body written to the output file, in hexadecimal; null when none is computed
+     */
+    @Whitelisted
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return the digest of the request body as it was last sent, in hexadecimal; null when none is computed
+     */
+    @Whitelisted
+    public String getUploadDigest() {
+        return uploadDigest;
+    }
+
+    void setUploadDigest(String uploadDigest) {
+        this.uploadDigest = uploadDigest;
+    }
+
+    @Whitelisted
+    public Map<String, List<String>> getHeaders() {
+        if (headers == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * @throws IllegalStateException when the body was dropped unread, as the content was lazy
+     */
     @Whitelisted
     public String getContent() {
+        if (contentDiscarded) {
+            throw new IllegalStateException("The response body was not downloaded, as lazyContent is set"
+                    + " and it was neither validated, logged nor written to the output file");
+        }
+        readContent();
+        if (contentFile != null) {
+            return readContentFile();
+        }
         return content;
     }
 
+    /**
+     * Reads the body not read yet, if any.
+     */
+    synchronized void readContent() {
+        readContent(null, true);
+    }
+
+    /**
+     * Cancels the deadline of the request once the body not read yet is read or dropped.
+     *
+     * @return false when the body is already read, the deadline isn't kept
+     */
+    synchronized boolean cancelOnceRead(RequestDeadline deadline) {
+        if (pendingResponse == null) {
+            return false;
+        }
+        pendingDeadline = deadline;
+        return true;
+    }
+
+    private void cancelDeadline() {
+        if (pendingDeadline != null) {
+            pendingDeadline.cancel();
+            pendingDeadline = null;
+        }
+    }
+
+    /**
+     * Checks the body with the matcher, reading it as it is checked when it is not read yet.
+     *
+     * @param keepContent false when nothing uses the body afterwards, so reading stops
+     * as soon as the matcher is decided
+     * @return why the body isn't valid, null when it is
+     */
+    synchronized String validateContent(ResponseContentMatcher matcher, boolean keepContent) {
+        if (contentChecked) {
+            return contentFailure;
+        }
+        if (pendingResponse != null) {
+            readContent(matcher, keepContent);
+        } else {
+            scanContent(matcher);
+        }
+        matcher.finish();
+        return matcher.getFailure();
+    }
+
+    private void readContent(ResponseContentMatcher matcher, boolean keepContent) {
+        if (pendingResponse == null) {
+            return;
+        }
+        HttpEntity entity = pendingResponse.getEntity();
+        HttpRequestBase request = pendingRequest;
+        pendingResponse = null;
+        pendingRequest = null;
+
+        boolean complete = false;
+        try {
+            complete = captureContent(entity, matcher, keepContent);
+        } catch (IOException e) {
+            content = "IOException while reading HttpResponse: "+e.getMessage();
+        } finally {
+            if (complete) {
+                EntityUtils.consumeQuietly(entity);
+            } else {
+                abort(request, entity);
+            }
+            cancelDeadline();
+        }
+    }
+
+    /**
+     * Drops the body not read yet, if any, without downloading it; {@link #getContent()}
+     * then fails. A small body is still read so the connection can be reused.
+     */
+    synchronized void discardContent() {
+        if (pendingResponse == null) {
+            return;
+        }
+        HttpEntity entity = pendingResponse.getEntity();
+        if (entity.getContentLength() >= 0 && entity.getContentLength() <= BUFFER_SIZE) {
+            EntityUtils.consumeQuietly(entity);
+        } else {
+            abort(pendingRequest, entity);
+        }
+        pendingResponse = null;
+        pendingRequest = null;
+        contentDiscarded = true;
+        cancelDeadline();
+    }
+
+    /**
+     * Aborts the request, then closes the body without reading the rest of it, so the streams
+     * wrapping it, such as those of the response cache, release what they hold.
+     */
+    private static void abort(HttpRequestBase request, HttpEntity entity) {
+        request.abort();
+        try {
+            IOUtils.closeQuietly(entity.getContent());
+        } catch (IOException | RuntimeException e) {
+            // the body can't be read anymore, there is nothing to release
+        }
+    }
+
+    /**
+     * Streams the entity to the file as it is received, so the body is never held in memory
+     * unless {@code readContent} asks for it to be read back from the file.
+     */
+    public ResponseContentSupplier(HttpResponse response, FilePath outputFile, boolean readContent)
+    throws IOException, InterruptedException
+    {
+        this(response, outputFile, readContent, null, null);
+    }
+
+    /**
+     * Same as {@link #ResponseContentSupplier(HttpResponse, FilePath, boolean)}, computing the
+     * digest of the body and checking it with the matcher as it is written.
+     *
+     * @param messageDigest may be null to compute none
+     * @param matcher may be null to check nothing
+     */
+    public ResponseContentSupplier(HttpResponse response, FilePath outputFile, boolean readContent,
+            MessageDigest messageDigest, ResponseContentMatcher matcher)
+    throws IOException, InterruptedException
+    {
+        this.status = response.getStatusLine().getStatusCode();
+        setHeaders(response);
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        InputStream in = entity.getContent();
+        if (messageDigest != null) {
+            in = new DigestInputStream(in, messageDigest);
+        }
+        if (matcher != null) {
+            in = new MatchingInputStream(in, new MatchingDecoder(getCharset(entity), matcher));
+        }
+        try (InputStream body = in) {
+            outputFile.copyFrom(body);
+        } finally {
+            EntityUtils.consume(entity);
+        }
+        if (messageDigest != null) {
+            digest = BodyDigest.toHex(messageDigest);
+        }
+        if (matcher != null) {
+            checked(matcher);
+        }
+        if (readContent) {
+            readOutputFile(outputFile, entity);
+        }
+    }
+
+    /**
+     * For a body the download has already written to its output file, checked with the matcher
+     * as the file is read again.
+     *
+     * @param matcher may be null to check nothing
+     */
+    public ResponseContentSupplier(HttpResponse response, ResumableDownload download, boolean readContent,
+            ResponseContentMatcher matcher)
+    throws IOException, InterruptedException
+    {
+        this.status = response.getStatusLine().getStatusCode();
+        setHeaders(response);
+        this.digest = download.getDigest();
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        if (matcher != null) {
+            try (InputStream in = download.getCompletedFile().read()) {
+                scan(in, getCharset(entity), matcher);
+            }
+            checked(matcher);
+        }
+        if (readContent) {
+            readOutputFile(download.getCompletedFile(), entity);
+        }
+    }
+
+    private void checked(ResponseContentMatcher matcher) {
+        matcher.finish();
+        contentFailure = matcher.getFailure();
+        contentChecked = true;
+    }
+
+    /**
+     * Reads the body written to the output file, also when the constructor was asked not to.
+     */
+    void readOutputFile(FilePath outputFile, HttpEntity entity) throws IOException, InterruptedException {
+        try (InputStream in = outputFile.read()) {
+            content = IOUtils.toString(in, getCharset(entity).name());
+        }
+    }
+
+    private void setHeaders(HttpResponse response) {
+        headers = new LinkedHashMap<>();
+        for (Header header : response.getAllHeaders()) {
+            List<String> values = headers.get(header.getName());
+            if (values == null) {
+                values = new ArrayList<>();
+                headers.put(header.getName(), values);
+            }
+            values.add(header.getValue());
+        }
+    }
+
     private void setContent(HttpResponse response) {
         try {
             HttpEntity entity = response.getEntity();
@@ -56,8 +401,210 @@ class ResponseContentSupplier implements Serializable {
         }
     }
 
+    /**
+     * @return false when the matcher decided before the end of the body
+     */
+    private boolean captureContent(HttpEntity entity, ResponseContentMatcher matcher, boolean keepContent) throws IOException {
+        InputStream in = entity.getContent();
+        if (in == null) {
+            return true;
+        }
+        Charset charset = getCharset(entity);
+        MatchingDecoder decoder = matcher == null ? null : new MatchingDecoder(charset, matcher);
+        boolean spill = spillDirectory != null && memoryThreshold > 0;
+
+        ByteArrayOutputStream buffer = keepContent ? new ByteArrayOutputStream() : null;
+        OutputStream out = buffer;
+        try {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            long total = 0;
+            int read;
+            while ((read = in.read(bytes)) != -1) {
+                if (decoder != null && !matcher.isDecided()) {
+                    decoder.update(bytes, 0, read);
+                }
+                if (!keepContent) {
+                    if (decoder == null || matcher.isDecided()) {
+                        return false;
+                    }
+                    continue;
+                }
+                total += read;
+                if (spill && out == buffer && total > memoryThreshold) {
+                    contentFile = File.createTempFile("http-response", ".tmp", spillDirectory);
+                    out = new FileOutputStream(contentFile);
+                    buffer.writeTo(out);
+                    buffer = null;
+                }
+                out.write(bytes, 0, read);
+            }
+            if (decoder != null && !matcher.isDecided()) {
+                decoder.finish();
+            }
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+
+        if (contentFile != null) {
+            contentCharset = charset.name();
+        } else if (buffer != null) {
+            content = new String(buffer.toByteArray(), charset);
+        }
+        return true;
+    }
+
+    private void scanContent(ResponseContentMatcher matcher) {
+        if (contentFile != null) {
+            try (InputStream in = new FileInputStream(contentFile)) {
+                scan(in, Charset.forName(contentCharset), matcher);
+            } catch (IOException e) {
+                char[] error = ("IOException while reading HttpResponse: "+e.getMessage()).toCharArray();
+                matcher.update(error, 0, error.length);
+            }
+        } else if (content != null) {
+            char[] chars = content.toCharArray();
+            matcher.update(chars, 0, chars.length);
+        }
+    }
+
+    /**
+     * Reads the stream until the matcher is decided.
+     */
+    private static void scan(InputStream in, Charset charset, ResponseContentMatcher matcher) throws IOException {
+        MatchingDecoder decoder = new MatchingDecoder(charset, matcher);
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int read;
+        while (!matcher.isDecided() && (read = in.read(bytes)) != -1) {
+            decoder.update(bytes, 0, read);
+        }
+        if (!matcher.isDecided()) {
+            decoder.finish();
+        }
+    }
+
+    private static Charset getCharset(HttpEntity entity) {
+        Charset charset = ContentType.getOrDefault(entity).getCharset();
+        return charset == null ? Charset.forName("ISO-8859-1") : charset;
+    }
+
+    private synchronized String readContentFile() {
+        if (contentFileContent != null) {
+            return contentFileContent;
+        }
+        StringBuilder builder = new StringBuilder((int) Math.min(contentFile.length(), Integer.MAX_VALUE - 8));
+        try (Reader in = new InputStreamReader(new FileInputStream(contentFile), contentCharset)) {
+            char[] chars = new char[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(chars)) != -1) {
+                builder.append(chars, 0, read);
+            }
+        } catch (IOException e) {
+            return "IOException while reading HttpResponse: "+e.getMessage();
+        }
+        contentFileContent = builder.toString();
+        return contentFileContent;
+    }
+
+    /**
+     * Decodes the body as it is read, for the matcher.
+     */
+    private static class MatchingDecoder {
+        private final CharsetDecoder decoder;
+        private final ResponseContentMatcher matcher;
+        private final ByteBuffer bytes = ByteBuffer.allocate(2 * BUFFER_SIZE);
+        private final CharBuffer chars = CharBuffer.allocate(2 * BUFFER_SIZE);
+
+        MatchingDecoder(Charset charset, ResponseContentMatcher matcher) {
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.matcher = matcher;
+        }
+
+        void update(byte[] input, int offset, int count) {
+            // decoding leaves at most the bytes of an incomplete character, the buffer is never full
+            while (count > 0) {
+                int chunk = Math.min(count, bytes.remaining());
+                bytes.put(input, offset, chunk);
+                bytes.flip();
+                decode(false);
+                bytes.compact();
+                offset += chunk;
+                count -= chunk;
+            }
+        }
+
+        void finish() {
+            bytes.flip();
+            decode(true);
+            while (decoder.flush(chars).isOverflow()) {
+                feed();
+            }
+            feed();
+        }
+
+        private void decode(boolean endOfInput) {
+            while (decoder.decode(bytes, chars, endOfInput).isOverflow()) {
+                feed();
+            }
+            feed();
+        }
+
+        private void feed() {
+            chars.flip();
+            matcher.update(chars.array(), chars.arrayOffset(), chars.limit());
+            chars.clear();
+        }
+    }
+
+    /**
+     * Feeds the decoder with the bytes read, until its matcher is decided.
+     */
+    private static class MatchingInputStream extends FilterInputStream {
+        private final MatchingDecoder decoder;
+        private final ResponseContentMatcher matcher;
+        private boolean finished;
+
+        MatchingInputStream(InputStream in, MatchingDecoder decoder) {
+            super(in);
+            this.decoder = decoder;
+            this.matcher = decoder.matcher;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read == -1) {
+                finish();
+            } else if (!matcher.isDecided()) {
+                decoder.update(new byte[] {(byte) read}, 0, 1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read == -1) {
+                finish();
+            } else if (read > 0 && !matcher.isDecided()) {
+                decoder.update(b, off, read);
+            }
+            return read;
+        }
+
+        private void finish() {
+            if (!finished && !matcher.isDecided()) {
+                decoder.finish();
+            }
+            finished = true;
+        }
+    }
+
     @Override
     public String toString() {
-        return "Status: "+status+", Response: "+content;
+        return "Status: "+status+", Response: "+getContent();
     }
 }
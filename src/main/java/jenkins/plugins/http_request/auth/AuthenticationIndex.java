@@ -0,0 +1,104 @@
+package jenkins.plugins.http_request.auth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the configured authentications, indexed by key name.
+ * <p>
+ * The global configuration replaces its snapshot whenever the authentications
+ * change, lookups read it without locking.
+ */
+public final class AuthenticationIndex {
+
+    public static final AuthenticationIndex EMPTY = new AuthenticationIndex(Collections.<Authenticator>emptyList());
+
+    private final List<Authenticator> authenticators;
+    private final Map<String, Authenticator> byKeyName;
+    private final Set<String> duplicateKeyNames;
+    private final List<String> keyNames;
+    private final String[] sortedKeyNames;
+
+    public AuthenticationIndex(List<? extends Authenticator> authenticators) {
+        this.authenticators = Collections.unmodifiableList(new ArrayList<Authenticator>(authenticators));
+
+        Map<String, Authenticator> byKeyName = new HashMap<String, Authenticator>();
+        Set<String> duplicateKeyNames = new HashSet<String>();
+        List<String> keyNames = new ArrayList<String>();
+        for (Authenticator authenticator : this.authenticators) {
+            String keyName = authenticator.getKeyName();
+            if (keyName == null) {
+                continue;
+            }
+            keyNames.add(keyName);
+            if (byKeyName.containsKey(keyName)) {
+                // the first one is used, as listed in the configuration
+                duplicateKeyNames.add(keyName);
+            } else {
+                byKeyName.put(keyName, authenticator);
+            }
+        }
+        this.byKeyName = byKeyName;
+        this.duplicateKeyNames = duplicateKeyNames;
+        this.keyNames = Collections.unmodifiableList(keyNames);
+        this.sortedKeyNames = byKeyName.keySet().toArray(new String[byKeyName.size()]);
+        Arrays.sort(this.sortedKeyNames, String.CASE_INSENSITIVE_ORDER);
+    }
+
+    /**
+     * @return the authentications, in configuration order
+     */
+    public List<Authenticator> getAuthenticators() {
+        return authenticators;
+    }
+
+    /**
+     * @return the key names, in configuration order
+     */
+    public List<String> getKeyNames() {
+        return keyNames;
+    }
+
+    public Authenticator get(String keyName) {
+        return keyName == null ? null : byKeyName.get(keyName);
+    }
+
+    public boolean isDuplicate(String keyName) {
+        return duplicateKeyNames.contains(keyName);
+    }
+
+    public int size() {
+        return sortedKeyNames.length;
+    }
+
+    /**
+     * @return up to {@code limit} key names starting with the prefix, ignoring case, in alphabetical order
+     */
+    public List<String> search(String prefix, int limit) {
+        String value = prefix == null ? "" : prefix;
+        int index = Arrays.binarySearch(sortedKeyNames, value, String.CASE_INSENSITIVE_ORDER);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            // equal ignoring case, move back to the first one
+            while (index > 0 && String.CASE_INSENSITIVE_ORDER.compare(sortedKeyNames[index - 1], value) == 0) {
+                index--;
+            }
+        }
+
+        List<String> result = new ArrayList<String>();
+        for (; index < sortedKeyNames.length && result.size() < limit; index++) {
+            if (!sortedKeyNames[index].regionMatches(true, 0, value, 0, value.length())) {
+                break;
+            }
+            result.add(sortedKeyNames[index]);
+        }
+        return result;
+    }
+}
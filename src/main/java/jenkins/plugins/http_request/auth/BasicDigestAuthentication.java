@@ -1,6 +1,8 @@
 package jenkins.plugins.http_request.auth;
 
 import java.io.PrintStream;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
@@ -8,14 +10,20 @@ import hudson.model.Descriptor;
 import hudson.util.FormValidation;
 import jenkins.model.Jenkins;
 import jenkins.plugins.http_request.HttpRequest;
+import org.apache.http.auth.AuthSchemeProvider;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.AuthCache;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.AuthSchemes;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIUtils;
+import org.apache.http.config.Lookup;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.auth.BasicSchemeFactory;
+import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.protocol.HttpContext;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -27,6 +35,18 @@ import org.kohsuke.stapler.QueryParameter;
 public class BasicDigestAuthentication extends AbstractDescribableImpl<BasicDigestAuthentication>
         implements Authenticator {
 
+    /**
+     * Authentication schemes of the hosts, by authentication; the authentications replaced by
+     * a new configuration are dropped with their caches.
+     */
+    private static final Map<BasicDigestAuthentication, SharedAuthCache> AUTH_CACHES =
+            new WeakHashMap<BasicDigestAuthentication, SharedAuthCache>();
+
+    private static final Lookup<AuthSchemeProvider> AUTH_SCHEME_REGISTRY = RegistryBuilder.<AuthSchemeProvider>create()
+            .register(AuthSchemes.BASIC, new BasicSchemeFactory())
+            .register(AuthSchemes.DIGEST, new SharedAuthCache.SharedDigestSchemeFactory())
+            .build();
+
     private final String keyName;
     private final String userName;
     private final String password;
@@ -56,9 +76,49 @@ public class BasicDigestAuthentication extends AbstractDescribableImpl<BasicDige
         client.getCredentialsProvider().setCredentials(
                 new AuthScope(requestBase.getURI().getHost(), requestBase.getURI().getPort()),
                 new UsernamePasswordCredentials(userName, password));
-        AuthCache authCache = new BasicAuthCache();
-        authCache.put(URIUtils.extractHost(requestBase.getURI()), new BasicScheme());
-        context.setAttribute(ClientContext.AUTH_CACHE, authCache);
+        client.getAuthSchemes().register(AuthSchemes.DIGEST, new SharedAuthCache.SharedDigestSchemeFactory());
+        context.setAttribute(ClientContext.AUTH_CACHE, getAuthCache(requestBase));
+    }
+
+    /**
+     * Same as {@link #authenticate(DefaultHttpClient, HttpContext, HttpRequestBase, PrintStream, Integer)}
+     * for a client shared by several requests, the credentials are kept in the context.
+     */
+    public void authenticate(HttpClientContext context, HttpRequestBase requestBase) {
+        CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(
+                new AuthScope(requestBase.getURI().getHost(), requestBase.getURI().getPort()),
+                new UsernamePasswordCredentials(userName, password));
+        context.setCredentialsProvider(credentialsProvider);
+        context.setAuthSchemeRegistry(AUTH_SCHEME_REGISTRY);
+        context.setAuthCache(getAuthCache(requestBase));
+    }
+
+    /**
+     * The cache shared by the requests with these credentials. A host is first
+     * sent Basic credentials preemptively, until it challenges for Digest, the
+     * answered Digest challenge is then reused by the following requests.
+     */
+    private SharedAuthCache getAuthCache(HttpRequestBase requestBase) {
+        SharedAuthCache authCache;
+        synchronized (AUTH_CACHES) {
+            authCache = AUTH_CACHES.get(this);
+            if (authCache == null) {
+                authCache = new SharedAuthCache();
+                AUTH_CACHES.put(this, authCache);
+            }
+        }
+        authCache.putIfAbsent(URIUtils.extractHost(requestBase.getURI()), new BasicScheme());
+        return authCache;
+    }
+
+    /**
+     * Forgets the authentication schemes of all hosts, the configuration of the authentications may have changed.
+     */
+    public static void invalidateAuthCaches() {
+        synchronized (AUTH_CACHES) {
+            AUTH_CACHES.clear();
+        }
     }
 
     @Extension
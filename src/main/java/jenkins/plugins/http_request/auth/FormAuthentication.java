@@ -2,9 +2,16 @@ package jenkins.plugins.http_request.auth;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.net.URI;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
@@ -14,11 +21,20 @@ import jenkins.model.Jenkins;
 import jenkins.plugins.http_request.HttpRequest;
 import jenkins.plugins.http_request.util.HttpClientUtil;
 import jenkins.plugins.http_request.util.RequestAction;
+import jenkins.plugins.http_request.util.RequestDeadline;
+import jenkins.plugins.http_request.util.RequestTimeouts;
+import org.apache.http.Header;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.cookie.Cookie;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.RedirectLocations;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 /**
@@ -27,8 +43,25 @@ import org.kohsuke.stapler.QueryParameter;
 public class FormAuthentication extends AbstractDescribableImpl<FormAuthentication>
         implements Authenticator {
 
+    public static final int DEFAULT_SESSION_TIMEOUT = 30;
+
+    /**
+     * Context attribute holding the session key when the request reuses a cached session.
+     */
+    private static final String SESSION_KEY_ATTRIBUTE = FormAuthentication.class.getName() + ".sessionKey";
+
+    /**
+     * Sessions of the logins, by key name and target host.
+     */
+    private static final ConcurrentMap<String, Session> SESSIONS = new ConcurrentHashMap<String, Session>();
+    /**
+     * Held while logging in, by session key; removed with the session.
+     */
+    private static final ConcurrentMap<String, ReentrantLock> LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+
     private final String keyName;
     private final List<RequestAction> actions;
+    private Integer sessionTimeout = DEFAULT_SESSION_TIMEOUT;
 
     @DataBoundConstructor
     public FormAuthentication(String keyName, List<RequestAction> actions) {
@@ -44,19 +77,212 @@ public class FormAuthentication extends AbstractDescribableImpl<FormAuthenticati
         return Collections.unmodifiableList(actions);
     }
 
+    /**
+     * @return minutes a login session is reused for, 0 to login before every request
+     */
+    public int getSessionTimeout() {
+        return sessionTimeout == null ? DEFAULT_SESSION_TIMEOUT : sessionTimeout;
+    }
+
+    @DataBoundSetter
+    public void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    /**
+     * Reuses the session of a previous login to the same host while it is
+     * valid, otherwise executes the login actions. Concurrent requests with the
+     * same key and host wait for a single login.
+     */
     public void authenticate(DefaultHttpClient client, HttpContext context,
             HttpRequestBase requestBase, PrintStream logger, Integer timeout) throws IOException, InterruptedException {
+        if (getSessionTimeout() <= 0) {
+            login(client, context, logger, timeout);
+            return;
+        }
+
+        String sessionKey = createSessionKey(requestBase.getURI());
+        Session session = getValidSession(sessionKey);
+        if (session == null) {
+            ReentrantLock lock = getLock(sessionKey);
+            // the login may take long, a build stopped meanwhile doesn't wait for it
+            lock.lockInterruptibly();
+            try {
+                session = getValidSession(sessionKey);
+                if (session == null) {
+                    client.getCookieStore().clear();
+                    login(client, context, logger, timeout);
+                    removeExpiredSessions();
+                    SESSIONS.put(sessionKey, new Session(client.getCookieStore().getCookies(),
+                            System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(getSessionTimeout())));
+                    return;
+                }
+            } finally {
+                lock.unlock();
+                if (!SESSIONS.containsKey(sessionKey)) {
+                    // the login failed
+                    removeSession(sessionKey, null);
+                }
+            }
+        }
+
+        logger.println("Reusing the login session of authentication: " + keyName);
+        for (Cookie cookie : session.cookies) {
+            client.getCookieStore().addCookie(cookie);
+        }
+        context.setAttribute(SESSION_KEY_ATTRIBUTE, sessionKey);
+    }
+
+    private void login(DefaultHttpClient client, HttpContext context, PrintStream logger, Integer timeout)
+            throws IOException, InterruptedException {
         final HttpClientUtil clientUtil = new HttpClientUtil();
         for (RequestAction requestAction : actions) {
             final HttpRequestBase method = clientUtil.createRequestBase(requestAction);
+            final RequestTimeouts timeouts = requestAction.getTimeouts(timeout);
+            final RequestDeadline deadline = RequestDeadline.start(timeouts.getTotalTimeout());
+            deadline.watch(method);
 
-            final HttpResponse execute = clientUtil.execute(client, context, method, logger, timeout);
+            final HttpResponse execute;
+            try {
+                execute = clientUtil.execute(client, context, method, logger, timeouts);
+                // release the pooled connection, only the session state is kept
+                EntityUtils.consume(execute.getEntity());
+            } catch (IOException e) {
+                if (deadline.isExpired()) {
+                    throw new IOException(deadline.getMessage(), e);
+                }
+                throw e;
+            } finally {
+                deadline.cancel();
+            }
             //from 400(client error) to 599(server error)
             if ((execute.getStatusLine().getStatusCode() >= 400
                     && execute.getStatusLine().getStatusCode() <= 599)) {
                 throw new IllegalStateException("Error doing authentication");
             }
         }
+        // the redirects of the login don't belong to the request
+        context.removeAttribute(HttpClientContext.REDIRECT_LOCATIONS);
+    }
+
+    /**
+     * Checks whether the server rejected a reused session, by answering 401/403
+     * or redirecting to one of the login urls. A rejected session is forgotten,
+     * the next {@link #authenticate} logs in again.
+     *
+     * @return true when the request should be sent again after a new login
+     */
+    public boolean isSessionRejected(HttpContext context, HttpResponse response) {
+        String sessionKey = (String) context.getAttribute(SESSION_KEY_ATTRIBUTE);
+        if (sessionKey == null) {
+            return false;
+        }
+
+        boolean rejected;
+        int status = response.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_UNAUTHORIZED || status == HttpStatus.SC_FORBIDDEN) {
+            rejected = true;
+        } else {
+            rejected = false;
+            Object redirectLocations = context.getAttribute(HttpClientContext.REDIRECT_LOCATIONS);
+            if (redirectLocations instanceof RedirectLocations) {
+                for (URI location : ((RedirectLocations) redirectLocations).getAll()) {
+                    rejected |= isLoginUrl(location);
+                }
+            }
+            Header location = response.getFirstHeader("Location");
+            if (status >= 300 && status < 400 && location != null) {
+                try {
+                    rejected |= isLoginUrl(URI.create(location.getValue()));
+                } catch (IllegalArgumentException e) {
+                    // not a login url then
+                }
+            }
+        }
+
+        if (rejected) {
+            removeSession(sessionKey, SESSIONS.get(sessionKey));
+            context.removeAttribute(SESSION_KEY_ATTRIBUTE);
+        }
+        return rejected;
+    }
+
+    private boolean isLoginUrl(URI location) {
+        for (RequestAction requestAction : actions) {
+            URL loginUrl = requestAction.getUrl();
+            if ((location.getHost() == null || location.getHost().equalsIgnoreCase(loginUrl.getHost()))
+                    && loginUrl.getPath().equals(location.getPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String createSessionKey(URI target) {
+        return keyName + "|" + target.getScheme() + "://" + target.getHost() + ":" + target.getPort();
+    }
+
+    private static Session getValidSession(String sessionKey) {
+        Session session = SESSIONS.get(sessionKey);
+        if (session != null && session.isExpired()) {
+            removeSession(sessionKey, session);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Drops the sessions of the hosts which were not requested again before they expired.
+     */
+    private static void removeExpiredSessions() {
+        for (Map.Entry<String, Session> entry : SESSIONS.entrySet()) {
+            if (entry.getValue().isExpired()) {
+                removeSession(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static void removeSession(String sessionKey, Session session) {
+        if (session != null) {
+            SESSIONS.remove(sessionKey, session);
+        }
+        ReentrantLock lock = LOCKS.get(sessionKey);
+        // a login in progress keeps its lock, for the requests waiting for it
+        if (lock != null && !lock.isLocked() && !lock.hasQueuedThreads()) {
+            LOCKS.remove(sessionKey, lock);
+        }
+    }
+
+    private static ReentrantLock getLock(String sessionKey) {
+        ReentrantLock lock = new ReentrantLock();
+        ReentrantLock previous = LOCKS.putIfAbsent(sessionKey, lock);
+        return previous == null ? lock : previous;
+    }
+
+    /**
+     * Forgets all login sessions, the configuration of the authentications may have changed.
+     */
+    public static void invalidateSessions() {
+        for (Map.Entry<String, Session> entry : SESSIONS.entrySet()) {
+            removeSession(entry.getKey(), entry.getValue());
+        }
+        for (String sessionKey : LOCKS.keySet()) {
+            removeSession(sessionKey, null);
+        }
+    }
+
+    private static class Session {
+        private final List<Cookie> cookies;
+        private final long expires;
+
+        private Session(List<Cookie> cookies, long expires) {
+            this.cookies = new ArrayList<Cookie>(cookies);
+            this.expires = expires;
+        }
+
+        private boolean isExpired() {
+            return expires <= System.currentTimeMillis();
+        }
     }
 
     @Extension
@@ -66,6 +292,10 @@ public class FormAuthentication extends AbstractDescribableImpl<FormAuthenticati
             return HttpRequest.DescriptorImpl.validateKeyName(value);
         }
 
+        public FormValidation doCheckSessionTimeout(@QueryParameter String value) {
+            return FormValidation.validateNonNegativeInteger(value);
+        }
+
         @Override
         public String getDisplayName() {
             return "Form Authentication";
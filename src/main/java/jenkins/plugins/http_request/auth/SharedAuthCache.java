@@ -0,0 +1,97 @@
+package jenkins.plugins.http_request.auth;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.auth.AuthSchemeFactory;
+import org.apache.http.auth.AuthSchemeProvider;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.client.AuthCache;
+import org.apache.http.impl.auth.DigestScheme;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * An {@link AuthCache} shared by the requests using the same credentials.
+ * <p>
+ * Unlike {@link org.apache.http.impl.client.BasicAuthCache}, which hands out
+ * copies, the cached schemes are shared. A Digest challenge answered once is
+ * used preemptively by the following requests, with the nonce count of the
+ * cached nonce increasing, and a stale nonce challenge updates it for all of them.
+ */
+class SharedAuthCache implements AuthCache {
+
+    private final ConcurrentMap<HttpHost, AuthScheme> schemes = new ConcurrentHashMap<HttpHost, AuthScheme>();
+
+    public void put(HttpHost host, AuthScheme authScheme) {
+        schemes.put(normalize(host), authScheme);
+    }
+
+    /**
+     * Caches the scheme unless one is cached for the host already.
+     */
+    void putIfAbsent(HttpHost host, AuthScheme authScheme) {
+        schemes.putIfAbsent(normalize(host), authScheme);
+    }
+
+    public AuthScheme get(HttpHost host) {
+        return schemes.get(normalize(host));
+    }
+
+    public void remove(HttpHost host) {
+        schemes.remove(normalize(host));
+    }
+
+    public void clear() {
+        schemes.clear();
+    }
+
+    private static HttpHost normalize(HttpHost host) {
+        if (host.getPort() > 0) {
+            return host;
+        }
+        int port = "https".equalsIgnoreCase(host.getSchemeName()) ? 443 : 80;
+        return new HttpHost(host.getHostName(), port, host.getSchemeName());
+    }
+
+    /**
+     * Digest scheme which can be used by concurrent requests.
+     */
+    static class SharedDigestScheme extends DigestScheme {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized void processChallenge(Header header) throws MalformedChallengeException {
+            super.processChallenge(header);
+        }
+
+        @Override
+        public synchronized Header authenticate(Credentials credentials, HttpRequest request, HttpContext context)
+                throws AuthenticationException {
+            return super.authenticate(credentials, request, context);
+        }
+
+        @Override
+        public synchronized boolean isComplete() {
+            return super.isComplete();
+        }
+    }
+
+    static class SharedDigestSchemeFactory implements AuthSchemeFactory, AuthSchemeProvider {
+
+        public AuthScheme newInstance(HttpParams params) {
+            return new SharedDigestScheme();
+        }
+
+        public AuthScheme create(HttpContext context) {
+            return new SharedDigestScheme();
+        }
+    }
+}
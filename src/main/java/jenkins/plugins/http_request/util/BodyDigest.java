@@ -0,0 +1,173 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.DatatypeConverter;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.plugins.http_request.DigestAlgorithm;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Digests of the bodies, computed as they are streamed, and of those sent by
+ * the server in the {@code Digest} (RFC 3230) and {@code Content-MD5} headers.
+ * Digests are in lowercase hexadecimal.
+ */
+public final class BodyDigest {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private BodyDigest() {
+    }
+
+    public static String toHex(MessageDigest digest) {
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Digests the request body each time it is sent, as it is before it is compressed.
+     *
+     * @return the entity computing the digest, null when the request has no body
+     */
+    public static DigestingEntity digestRequestBody(HttpRequestBase request, DigestAlgorithm algorithm) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return null;
+        }
+        HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+        if (enclosingRequest.getEntity() == null) {
+            return null;
+        }
+        DigestingEntity entity = new DigestingEntity(enclosingRequest.getEntity(), algorithm);
+        enclosingRequest.setEntity(entity);
+        return entity;
+    }
+
+    /**
+     * Reads the file where it is, for a body not written in order.
+     */
+    public static String digestFile(FilePath file, DigestAlgorithm algorithm) throws IOException, InterruptedException {
+        return file.act(new DigestFile(algorithm));
+    }
+
+    /**
+     * @param headers of a response, whose body is whole
+     * @return the digest of the body sent by the server, null when it sent none for the algorithm
+     */
+    public static String getSentDigest(Map<String, List<String>> headers, DigestAlgorithm algorithm) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if ("Digest".equalsIgnoreCase(header.getKey())) {
+                for (String value : header.getValue()) {
+                    for (String instanceDigest : value.split(",")) {
+                        int separator = instanceDigest.indexOf('=');
+                        if (separator > 0 && instanceDigest.substring(0, separator).trim().equalsIgnoreCase(algorithm.getHeaderName())) {
+                            return fromBase64(instanceDigest.substring(separator + 1));
+                        }
+                    }
+                }
+            }
+            if (algorithm == DigestAlgorithm.MD5 && "Content-MD5".equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return fromBase64(header.getValue().get(0));
+            }
+        }
+        return null;
+    }
+
+    private static String fromBase64(String value) {
+        return toHex(DatatypeConverter.parseBase64Binary(value.trim()));
+    }
+
+    /**
+     * A request entity computing the digest of its content each time it is written.
+     */
+    public static class DigestingEntity extends HttpEntityWrapper {
+
+        private final DigestAlgorithm algorithm;
+        private volatile String digest;
+
+        DigestingEntity(HttpEntity wrappedEntity, DigestAlgorithm algorithm) {
+            super(wrappedEntity);
+            this.algorithm = algorithm;
+        }
+
+        /**
+         * @return the digest of the content last written, null when it wasn't written whole
+         */
+        public String getDigest() {
+            return digest;
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            digest = null;
+            final MessageDigest messageDigest = algorithm.createDigest();
+            wrappedEntity.writeTo(new FilterOutputStream(outstream) {
+                @Override
+                public void write(int b) throws IOException {
+                    messageDigest.update((byte) b);
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    messageDigest.update(b, off, len);
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // the request stream is closed by the client
+                    flush();
+                }
+            });
+            digest = toHex(messageDigest);
+        }
+    }
+
+    private static class DigestFile extends MasterToSlaveFileCallable<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final DigestAlgorithm algorithm;
+
+        DigestFile(DigestAlgorithm algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String invoke(File f, VirtualChannel channel) throws IOException {
+            MessageDigest digest = algorithm.createDigest();
+            try (InputStream in = new FileInputStream(f)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            return toHex(digest);
+        }
+    }
+}
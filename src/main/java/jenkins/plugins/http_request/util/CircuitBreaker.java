@@ -0,0 +1,248 @@
+package jenkins.plugins.http_request.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import hudson.AbortException;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+
+/**
+ * Stops sending requests to a host which keeps failing, shared by all the
+ * builds of the controller.
+ * <p>
+ * The outcomes of the last requests to the host are kept in a window, a request
+ * fails when it gets no response or a 5xx response. Once at least half of the
+ * window is recorded and the failure rate reaches the threshold, the breaker
+ * opens: requests fail at once with an {@link OpenException}, without reaching
+ * the host, so they are not retried either.
+ * After the open duration a single probe request is let through, the breaker
+ * closes when it succeeds and opens again when it fails.
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private static volatile Settings settings;
+
+    private final String host;
+    private State state = State.CLOSED;
+    private boolean[] failures;
+    private int recorded;
+    private int next;
+    private int failureCount;
+    private long openedAt;
+    private boolean probing;
+
+    private CircuitBreaker(String host, int windowSize) {
+        this.host = host;
+        this.failures = new boolean[windowSize];
+    }
+
+    /**
+     * Applies new settings, the breakers restart closed.
+     *
+     * @param failureRate percentage of failed requests which opens a breaker, 0 disables them
+     * @param windowSize number of requests the failure rate is computed on
+     * @param openDuration milliseconds before an open breaker lets a probe through
+     */
+    public static void configure(int failureRate, int windowSize, long openDuration) {
+        settings = failureRate <= 0 || windowSize <= 0 ? null : new Settings(failureRate, windowSize, openDuration);
+        BREAKERS.clear();
+    }
+
+    /**
+     * @return the breaker of the host, null when breakers are disabled
+     */
+    public static CircuitBreaker forHost(HttpHost target) {
+        Settings current = settings;
+        if (current == null || target == null) {
+            return null;
+        }
+        String key = getKey(target);
+        CircuitBreaker breaker = BREAKERS.get(key);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(key, current.windowSize);
+            CircuitBreaker previous = BREAKERS.putIfAbsent(key, breaker);
+            if (previous != null) {
+                breaker = previous;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * @return the breakers of the hosts requested since the settings were applied, by host
+     */
+    public static List<CircuitBreaker> getAll() {
+        List<CircuitBreaker> breakers = new ArrayList<CircuitBreaker>(BREAKERS.values());
+        Collections.sort(breakers, new Comparator<CircuitBreaker>() {
+            @Override
+            public int compare(CircuitBreaker a, CircuitBreaker b) {
+                return a.host.compareTo(b.host);
+            }
+        });
+        return breakers;
+    }
+
+    private static String getKey(HttpHost target) {
+        int port = target.getPort();
+        if (port < 0) {
+            port = "https".equalsIgnoreCase(target.getSchemeName()) ? 443 : 80;
+        }
+        return target.getSchemeName() + "://" + target.getHostName().toLowerCase() + ":" + port;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return percentage of failed requests in the window
+     */
+    public synchronized int getFailureRate() {
+        return recorded == 0 ? 0 : failureCount * 100 / recorded;
+    }
+
+    /**
+     * @return true when the request can be sent, it must then be followed by
+     * {@link #recordSuccess()}, {@link #recordFailure()} or {@link #release()}
+     */
+    public synchronized boolean tryAcquire() {
+        Settings current = settings;
+        if (current == null || state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= current.openDuration) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void recordSuccess() {
+        if (probing) {
+            probing = false;
+            state = State.CLOSED;
+            clearWindow();
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void recordFailure() {
+        if (probing) {
+            probing = false;
+            open();
+            return;
+        }
+        record(true);
+    }
+
+    /**
+     * Releases a request which ended without telling anything about the host.
+     */
+    public synchronized void release() {
+        if (probing) {
+            probing = false;
+            // let another probe through
+            state = State.HALF_OPEN;
+        }
+    }
+
+    /**
+     * Records the outcome of a response, a 5xx response is a failure.
+     */
+    public void record(HttpResponse response) {
+        if (response.getStatusLine().getStatusCode() >= 500) {
+            recordFailure();
+        } else {
+            recordSuccess();
+        }
+    }
+
+    private void record(boolean failure) {
+        Settings current = settings;
+        if (state != State.CLOSED || current == null) {
+            return;
+        }
+        if (recorded == failures.length) {
+            if (failures[next]) {
+                failureCount--;
+            }
+        } else {
+            recorded++;
+        }
+        failures[next] = failure;
+        if (failure) {
+            failureCount++;
+        }
+        next = (next + 1) % failures.length;
+
+        if (recorded >= Math.max(1, failures.length / 2) && failureCount * 100 >= current.failureRate * recorded) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        clearWindow();
+    }
+
+    private void clearWindow() {
+        recorded = 0;
+        next = 0;
+        failureCount = 0;
+        for (int i = 0; i < failures.length; i++) {
+            failures[i] = false;
+        }
+    }
+
+    /**
+     * @return the failure of a request the breaker didn't let through
+     */
+    public OpenException createRejection() {
+        return new OpenException("Circuit breaker open for " + host + ", the request was not sent");
+    }
+
+    /**
+     * A request the breaker didn't let through.
+     */
+    public static class OpenException extends AbortException {
+
+        private static final long serialVersionUID = 1L;
+
+        OpenException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Settings {
+        private final int failureRate;
+        private final int windowSize;
+        private final long openDuration;
+
+        Settings(int failureRate, int windowSize, long openDuration) {
+            this.failureRate = failureRate;
+            this.windowSize = windowSize;
+            this.openDuration = openDuration;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import hudson.FilePath;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+/**
+ * A multipart body part streaming a workspace file, which may live on an agent.
+ * The file is read while the request is sent, and again when it is resent.
+ * Its length is left unknown, so the multipart body is sent chunked without
+ * asking the agent for the length of every part first.
+ */
+public class FilePathBody extends AbstractContentBody {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FilePath file;
+    private final String fileName;
+
+    /**
+     * @param fileName sent in the part header, the name of the file when null
+     */
+    public FilePathBody(FilePath file, ContentType contentType, String fileName) throws IOException {
+        super(contentType);
+        this.file = file;
+        this.fileName = fileName == null || fileName.isEmpty() ? file.getName() : fileName;
+        try {
+            if (!file.exists()) {
+                throw new IOException("Upload file " + file.getRemote() + " doesn't exist");
+            }
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+    }
+
+    @Override
+    public String getFilename() {
+        return fileName;
+    }
+
+    @Override
+    public String getTransferEncoding() {
+        return MIME.ENC_BINARY;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (InputStream in = file.read()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.flush();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+    }
+
+    private static InterruptedIOException interrupted(InterruptedException e) {
+        InterruptedIOException ex = new InterruptedIOException(e.getMessage());
+        ex.initCause(e);
+        return ex;
+    }
+}
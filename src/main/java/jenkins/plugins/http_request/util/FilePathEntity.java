@@ -0,0 +1,77 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import hudson.FilePath;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * A repeatable entity streaming a workspace file, which may live on an agent.
+ * The length is read once up front, so the file is sent with a known length.
+ */
+public class FilePathEntity extends AbstractHttpEntity {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FilePath file;
+    private final long length;
+
+    public FilePathEntity(FilePath file) throws IOException {
+        this.file = file;
+        try {
+            if (!file.exists()) {
+                throw new IOException("Upload file " + file.getRemote() + " doesn't exist");
+            }
+            this.length = file.length();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+        setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        try {
+            return file.read();
+        } catch (InterruptedException e) {
+            throw interrupted(e);
+        }
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        try (InputStream in = getContent()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                outstream.write(buffer, 0, read);
+            }
+            outstream.flush();
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private static InterruptedIOException interrupted(InterruptedException e) {
+        InterruptedIOException ex = new InterruptedIOException(e.getMessage());
+        ex.initCause(e);
+        return ex;
+    }
+}
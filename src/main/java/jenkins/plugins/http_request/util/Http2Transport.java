@@ -0,0 +1,327 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * Sends requests over HTTP/2.
+ * <p>
+ * The client keeps one connection per host, concurrent requests to that host
+ * are multiplexed on it. Over TLS the version is negotiated with ALPN, falling
+ * back to HTTP/1.1. Plain http urls use HTTP/2 without negotiation (h2c) only
+ * when asked. Whether a host speaks h2c is first checked by a handshake sending
+ * no request, and the answer is kept for a while: a host which doesn't is sent
+ * HTTP/1.1 requests meanwhile, and a request failing once the host answered the
+ * handshake is not sent again over HTTP/1.1, as the server may have processed it.
+ * <p>
+ * Requests and responses are converted from and to their HttpClient
+ * counterparts, so they are built and processed as the HTTP/1.1 ones.
+ */
+public class Http2Transport {
+
+    private static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    /**
+     * The client connection preface of HTTP/2, followed by an empty SETTINGS frame.
+     */
+    private static final byte[] H2C_PREFACE = concat("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII),
+            new byte[] {0, 0, 0, 4, 0, 0, 0, 0, 0});
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int SETTINGS_FRAME = 4;
+    private static final int H2C_HANDSHAKE_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+    private static final long H2C_SUPPORT_TTL = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Whether the hosts answered the h2c handshake, until when.
+     */
+    private static final ConcurrentMap<String, H2cSupport> H2C_SUPPORT = new ConcurrentHashMap<String, H2cSupport>();
+
+    private final OkHttpClient client;
+    private final boolean priorKnowledge;
+
+    /**
+     * @param client shared by every transport, for its connections to be reused
+     * @param priorKnowledge whether plain http urls are sent over h2c
+     */
+    public Http2Transport(OkHttpClient client, boolean priorKnowledge) {
+        this.client = client;
+        this.priorKnowledge = priorKnowledge;
+    }
+
+    /**
+     * @return whether the request is sent by this transport, it is sent over HTTP/1.1 otherwise
+     */
+    public boolean isUsedFor(HttpRequestBase request) {
+        String scheme = request.getURI().getScheme();
+        if ("https".equalsIgnoreCase(scheme)) {
+            return true;
+        }
+        if (!priorKnowledge || !"http".equalsIgnoreCase(scheme)) {
+            return false;
+        }
+        H2cSupport support = H2C_SUPPORT.get(hostOf(request));
+        return support == null || support.isExpired() || support.supported;
+    }
+
+    /**
+     * The lease timeout doesn't apply, a request never waits for a connection.
+     *
+     * @throws PriorKnowledgeException when the server didn't answer the h2c handshake, the request wasn't sent
+     * and can be sent over HTTP/1.1
+     */
+    public HttpResponse execute(HttpRequestBase request, RequestTimeouts timeouts) throws IOException {
+        boolean cleartext = !"https".equalsIgnoreCase(request.getURI().getScheme());
+        if (cleartext) {
+            checkH2c(request, timeouts);
+        }
+        final Call call = createClient(request, timeouts, cleartext).newCall(createRequest(request));
+        request.setCancellable(new Cancellable() {
+            @Override
+            public boolean cancel() {
+                call.cancel();
+                return true;
+            }
+        });
+        if (request.isAborted()) {
+            throw new InterruptedIOException("Request aborted");
+        }
+
+        return toHttpResponse(call.execute());
+    }
+
+    /**
+     * Checks the host speaks h2c, by a handshake of its own when its answer isn't known.
+     */
+    private void checkH2c(HttpRequestBase request, RequestTimeouts timeouts) throws IOException {
+        String host = hostOf(request);
+        H2cSupport support = H2C_SUPPORT.get(host);
+        if (support == null || support.isExpired()) {
+            support = new H2cSupport(isH2cAnswered(request, timeouts));
+            H2C_SUPPORT.put(host, support);
+        }
+        if (!support.supported) {
+            throw new PriorKnowledgeException("the server didn't answer the HTTP/2 connection preface");
+        }
+    }
+
+    /**
+     * Sends the connection preface of HTTP/2, an HTTP/2 server answers with its settings.
+     *
+     * @throws IOException when the host can't be reached, the request would fail the same way
+     */
+    private boolean isH2cAnswered(HttpRequestBase request, RequestTimeouts timeouts) throws IOException {
+        URI uri = request.getURI();
+        int port = uri.getPort() < 0 ? 80 : uri.getPort();
+        int readTimeout = timeouts.getReadTimeout() > 0
+                ? Math.min(timeouts.getReadTimeout(), H2C_HANDSHAKE_TIMEOUT) : H2C_HANDSHAKE_TIMEOUT;
+        try (Socket socket = client.socketFactory().createSocket()) {
+            socket.connect(new InetSocketAddress(uri.getHost(), port), timeouts.getConnectTimeout());
+            socket.setSoTimeout(readTimeout);
+            OutputStream out = socket.getOutputStream();
+            out.write(H2C_PREFACE);
+            out.flush();
+
+            byte[] frame = new byte[FRAME_HEADER_LENGTH];
+            try {
+                new DataInputStream(socket.getInputStream()).readFully(frame);
+            } catch (IOException e) {
+                // closed or not answered, as a server speaking HTTP/1.1 only may do
+                return false;
+            }
+            // a SETTINGS frame of the connection, not an acknowledgement
+            return frame[3] == SETTINGS_FRAME && (frame[4] & 1) == 0
+                    && frame[5] == 0 && frame[6] == 0 && frame[7] == 0 && frame[8] == 0;
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private OkHttpClient createClient(HttpRequestBase request, RequestTimeouts timeouts, boolean cleartext) {
+        // as the HTTP/1.1 clients, a request with a body isn't sent again once the connection failed
+        boolean enclosing = request instanceof HttpEntityEnclosingRequest;
+        if (!cleartext && !enclosing && timeouts.getConnectTimeout() == 0 && timeouts.getReadTimeout() == 0) {
+            return client;
+        }
+        // derived clients share the connection pool of the shared one
+        OkHttpClient.Builder builder = client.newBuilder();
+        if (cleartext) {
+            builder.protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        }
+        if (enclosing) {
+            builder.retryOnConnectionFailure(false);
+        }
+        if (timeouts.getConnectTimeout() > 0) {
+            builder.connectTimeout(timeouts.getConnectTimeout(), TimeUnit.MILLISECONDS);
+        }
+        if (timeouts.getReadTimeout() > 0) {
+            builder.readTimeout(timeouts.getReadTimeout(), TimeUnit.MILLISECONDS);
+            builder.writeTimeout(timeouts.getReadTimeout(), TimeUnit.MILLISECONDS);
+        }
+        return builder.build();
+    }
+
+    private static Request createRequest(HttpRequestBase request) {
+        Request.Builder builder = new Request.Builder().url(request.getURI().toString());
+        String contentType = null;
+        for (Header header : request.getAllHeaders()) {
+            String name = header.getName();
+            if (isConnectionHeader(name)) {
+                continue;
+            }
+            if ("Content-Type".equalsIgnoreCase(name)) {
+                contentType = header.getValue();
+            }
+            builder.addHeader(name, header.getValue());
+        }
+
+        RequestBody body = null;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (contentType == null && entity != null && entity.getContentType() != null) {
+                contentType = entity.getContentType().getValue();
+            }
+            body = new EntityRequestBody(entity, contentType == null ? null : MediaType.parse(contentType));
+        }
+        return builder.method(request.getMethod(), body).build();
+    }
+
+    private static boolean isConnectionHeader(String name) {
+        // set by the client, or not allowed in HTTP/2
+        return "Host".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name)
+                || "Transfer-Encoding".equalsIgnoreCase(name) || "Connection".equalsIgnoreCase(name)
+                || "Keep-Alive".equalsIgnoreCase(name) || "Proxy-Connection".equalsIgnoreCase(name)
+                || "Upgrade".equalsIgnoreCase(name);
+    }
+
+    private static HttpResponse toHttpResponse(Response response) {
+        String reason = response.message();
+        if (reason == null || reason.isEmpty()) {
+            // HTTP/2 has no reason phrase
+            reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(response.code(), Locale.ENGLISH);
+        }
+        BasicHttpResponse httpResponse = new BasicHttpResponse(toProtocolVersion(response.protocol()), response.code(), reason);
+        Headers headers = response.headers();
+        for (int i = 0; i < headers.size(); i++) {
+            httpResponse.addHeader(headers.name(i), headers.value(i));
+        }
+
+        ResponseBody body = response.body();
+        BasicHttpEntity entity = new BasicHttpEntity();
+        // closing the content closes the response
+        entity.setContent(body.byteStream());
+        entity.setContentLength(body.contentLength());
+        entity.setContentType(httpResponse.getFirstHeader("Content-Type"));
+        entity.setContentEncoding(httpResponse.getFirstHeader("Content-Encoding"));
+        httpResponse.setEntity(entity);
+        return httpResponse;
+    }
+
+    private static ProtocolVersion toProtocolVersion(Protocol protocol) {
+        if (protocol == Protocol.HTTP_2 || protocol == Protocol.H2_PRIOR_KNOWLEDGE) {
+            return HTTP_2;
+        }
+        if (protocol == Protocol.HTTP_1_0) {
+            return HttpVersion.HTTP_1_0;
+        }
+        return HttpVersion.HTTP_1_1;
+    }
+
+    private static String hostOf(HttpRequestBase request) {
+        return request.getURI().getHost() + ":" + request.getURI().getPort();
+    }
+
+    /**
+     * Writes the entity of a request, which is read again when the request is resent.
+     */
+    private static class EntityRequestBody extends RequestBody {
+
+        private final HttpEntity entity;
+        private final MediaType contentType;
+
+        EntityRequestBody(HttpEntity entity, MediaType contentType) {
+            this.entity = entity;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return contentType;
+        }
+
+        @Override
+        public long contentLength() {
+            return entity == null ? 0 : entity.getContentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            if (entity != null) {
+                entity.writeTo(sink.outputStream());
+            }
+        }
+    }
+
+    private static class H2cSupport {
+        private final boolean supported;
+        private final long expiresAt = System.currentTimeMillis() + H2C_SUPPORT_TTL;
+
+        H2cSupport(boolean supported) {
+            this.supported = supported;
+        }
+
+        boolean isExpired() {
+            return expiresAt <= System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The server of a plain http url didn't answer the h2c handshake, no request was sent to it.
+     */
+    public static class PriorKnowledgeException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        PriorKnowledgeException(String message) {
+            super(message);
+        }
+    }
+}
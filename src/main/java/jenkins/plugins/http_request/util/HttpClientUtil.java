@@ -3,7 +3,11 @@ package jenkins.plugins.http_request.util;
 import com.google.common.base.Strings;
 import jenkins.plugins.http_request.HttpMode;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -12,29 +16,51 @@ import org.apache.http.client.methods.HttpPatch;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.SystemDefaultHttpClient;
 import org.apache.http.protocol.HttpContext;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
-import java.net.URI;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.nio.charset.Charset;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 
 /**
  * @author Janario Oliveira
  */
 public class HttpClientUtil {
 
+    /**
+     * Creates a client backed by the given, shared, connection manager.
+     * The client keeps its own parameters and credentials, so it can be
+     * configured per request while connections are reused across requests.
+     * The connection manager is owned by the caller and must not be shut
+     * down through the returned client.
+     */
+    public DefaultHttpClient createHttpClient(final ClientConnectionManager connectionManager) {
+        return new SystemDefaultHttpClient() {
+            @Override
+            protected ClientConnectionManager createClientConnectionManager() {
+                return connectionManager;
+            }
+        };
+    }
+
     public HttpRequestBase createRequestBase(RequestAction requestAction) throws IOException {
         HttpRequestBase httpRequestBase = doCreateRequestBase(requestAction);
         for (HttpRequestNameValuePair header : requestAction.getHeaders()) {
@@ -68,13 +94,45 @@ public class HttpClientUtil {
     }
 
     private HttpEntity makeEntity(RequestAction requestAction) throws
-            UnsupportedEncodingException {
+            IOException {
+        if (requestAction.getUploadFile() != null) {
+            return new FilePathEntity(requestAction.getUploadFile());
+        }
+        if (!requestAction.getFormData().isEmpty()) {
+            return makeMultipartEntity(requestAction);
+        }
         if (!Strings.isNullOrEmpty(requestAction.getRequestBody())) {
         	return new StringEntity(requestAction.getRequestBody());
         }
         return new UrlEncodedFormEntity(requestAction.getParams());
     }
 
+    /**
+     * The parts are written while the request is sent, files are streamed from the workspace.
+     */
+    private HttpEntity makeMultipartEntity(RequestAction requestAction) throws IOException {
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        for (HttpRequestFormDataPart part : requestAction.getFormData()) {
+            if (part.isFile()) {
+                ContentType contentType = Strings.isNullOrEmpty(part.getContentType())
+                        ? ContentType.APPLICATION_OCTET_STREAM : ContentType.parse(part.getContentType());
+                builder.addPart(part.getName(), new FilePathBody(requestAction.getWorkspace().child(part.getUploadFile()),
+                        contentType, part.getFileName()));
+            } else {
+                ContentType contentType = Strings.isNullOrEmpty(part.getContentType())
+                        ? ContentType.create("text/plain", Charset.forName("UTF-8")) : ContentType.parse(part.getContentType());
+                builder.addTextBody(part.getName(), Strings.nullToEmpty(part.getValue()), contentType);
+            }
+        }
+        return new HttpEntityWrapper(builder.build()) {
+            @Override
+            public boolean isRepeatable() {
+                // an entity of unknown length says it isn't, but every part can be written again
+                return true;
+            }
+        };
+    }
+
     public HttpGet makeGet(RequestAction requestAction) throws IOException {
         final String url = requestAction.getUrl().toString();
         final StringBuilder sb = new StringBuilder(url);
@@ -99,7 +157,7 @@ public class HttpClientUtil {
         return httpHead;
     }
 
-    public HttpPost makePost(RequestAction requestAction) throws UnsupportedEncodingException {
+    public HttpPost makePost(RequestAction requestAction) throws IOException {
         final HttpEntity httpEntity = makeEntity(requestAction);
         final HttpPost httpPost = new HttpPost(requestAction.getUrl().toString());
         httpPost.setEntity(httpEntity);
@@ -107,7 +165,7 @@ public class HttpClientUtil {
         return httpPost;
     }
 
-    public HttpPut makePut(RequestAction requestAction) throws UnsupportedEncodingException {
+    public HttpPut makePut(RequestAction requestAction) throws IOException {
         final HttpEntity entity = makeEntity(requestAction);
         final HttpPut httpPut = new HttpPut(requestAction.getUrl().toString());
         httpPut.setEntity(entity);
@@ -115,7 +173,7 @@ public class HttpClientUtil {
         return httpPut;
     }
 
-    public HttpPatch makePatch(RequestAction requestAction) throws UnsupportedEncodingException {
+    public HttpPatch makePatch(RequestAction requestAction) throws IOException {
         final HttpEntity entity = makeEntity(requestAction);
         final HttpPatch httpPatch = new HttpPatch(requestAction.getUrl().toString());
         httpPatch.setEntity(entity);
@@ -129,43 +187,122 @@ public class HttpClientUtil {
         return httpDelete;
     }
 
+    /**
+     * Asks for gzip or deflate responses, which the client decompresses while they
+     * are read. Left out when the request sets its own Accept-Encoding, its
+     * response is then kept as it is sent.
+     *
+     * @return whether the responses of the request are decompressed
+     */
+    public boolean acceptCompressedResponses(DefaultHttpClient client, HttpRequestBase request) {
+        if (request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+            return false;
+        }
+        client.addRequestInterceptor(new RequestAcceptEncoding());
+        client.addResponseInterceptor(new ResponseContentEncoding());
+        return true;
+    }
+
+    /**
+     * Gzips the body of the request while it is sent, for servers accepting Content-Encoding: gzip.
+     *
+     * @return whether the request has a body to compress
+     */
+    public boolean compressRequestBody(HttpRequestBase request) {
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return false;
+        }
+        HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+        if (enclosingRequest.getEntity() == null) {
+            return false;
+        }
+        enclosingRequest.setEntity(new GzipCompressingEntity(enclosingRequest.getEntity()));
+        // also set on the request for the HTTP/2 transport, which doesn't look at the entity encoding
+        request.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        return true;
+    }
+
+    /**
+     * Timeouts of a request sent by the asynchronous client, in seconds.
+     * The request timeout, when set, takes precedence over the lease timeout.
+     */
+    public RequestConfig createRequestConfig(Integer timeout, int leaseTimeout) {
+        return RequestTimeouts.of(timeout).createRequestConfig(leaseTimeout * 1000);
+    }
+
     public HttpResponse execute(DefaultHttpClient client, HttpContext context, HttpRequestBase method,
                                 PrintStream logger, Integer timeout) throws IOException, InterruptedException {
-        doSecurity(client, method.getURI());
+        return execute(client, context, method, logger, RequestTimeouts.of(timeout));
+    }
+
+    public HttpResponse execute(DefaultHttpClient client, HttpContext context, HttpRequestBase method,
+                                PrintStream logger, RequestTimeouts timeouts) throws IOException, InterruptedException {
+        return execute(client, context, method, logger, timeouts, null);
+    }
 
+    /**
+     * The timeouts are set on the request, the client, possibly shared, is left as it is.
+     *
+     * @param transport sends the request over HTTP/2 when it can, null to always use the HTTP/1.1 client
+     */
+    public HttpResponse execute(DefaultHttpClient client, HttpContext context, HttpRequestBase method,
+                                PrintStream logger, RequestTimeouts timeouts, Http2Transport transport)
+            throws IOException, InterruptedException {
         logger.println("Sending request to url: " + method.getURI());
-        
-        if (timeout !=null) {
-            client.getParams().setParameter("http.socket.timeout", timeout * 1000);
-            client.getParams().setParameter("http.connection.timeout", timeout * 1000);
-            client.getParams().setParameter("http.connection-manager.timeout", timeout * 1000);
-            client.getParams().setParameter("http.protocol.head-body-timeout", timeout * 1000);
+
+        timeouts.apply(method);
+
+        CircuitBreaker circuitBreaker = CircuitBreaker.forHost(URIUtils.extractHost(method.getURI()));
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            throw circuitBreaker.createRejection();
+        }
+
+        final HttpResponse httpResponse;
+        boolean recorded = false;
+        try {
+            httpResponse = send(client, context, method, logger, timeouts, transport);
+            if (circuitBreaker != null) {
+                circuitBreaker.record(httpResponse);
+                recorded = true;
+            }
+        } catch (IOException e) {
+            if (circuitBreaker != null && isHostFailure(method, e)) {
+                circuitBreaker.recordFailure();
+                recorded = true;
+            }
+            throw e;
+        } finally {
+            if (circuitBreaker != null && !recorded) {
+                circuitBreaker.release();
+            }
         }
-        
-        final HttpResponse httpResponse = client.execute(method, context);
         logger.println("Response Code: " + httpResponse.getStatusLine());
         
         return httpResponse;
     }
 
-    private void doSecurity(DefaultHttpClient base, URI uri) throws IOException {
-        if (!uri.getScheme().equals("https")) {
-            return;
+    /**
+     * @return false when the request failed on this side: aborted by its total timeout or a stopped
+     * build, waiting for a pooled connection, or resolving the name of the host
+     */
+    private static boolean isHostFailure(HttpRequestBase method, IOException e) {
+        if (method.isAborted() || e instanceof UnknownHostException || e instanceof ConnectionPoolTimeoutException) {
+            return false;
         }
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException
+                || e instanceof ConnectTimeoutException;
+    }
 
+    private HttpResponse send(DefaultHttpClient client, HttpContext context, HttpRequestBase method,
+                              PrintStream logger, RequestTimeouts timeouts, Http2Transport transport) throws IOException {
+        if (transport == null || !transport.isUsedFor(method)) {
+            return client.execute(method, context);
+        }
         try {
-            final SSLSocketFactory ssf = new SSLSocketFactory(new TrustStrategy() {
-                public boolean isTrusted(X509Certificate[] chain,
-                        String authType) throws CertificateException {
-                    return true;
-                }
-            }, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-
-            final SchemeRegistry schemeRegistry = base.getConnectionManager().getSchemeRegistry();
-            final int port = uri.getPort() < 0 ? 443 : uri.getPort();
-            schemeRegistry.register(new Scheme(uri.getScheme(), port, ssf));
-        } catch (Exception ex) {
-            throw new IOException("Error unknown", ex);
+            return transport.execute(method, timeouts);
+        } catch (Http2Transport.PriorKnowledgeException e) {
+            logger.println("HTTP/2 without negotiation failed (" + e.getMessage() + "), falling back to HTTP/1.1");
+            return client.execute(method, context);
         }
     }
 }
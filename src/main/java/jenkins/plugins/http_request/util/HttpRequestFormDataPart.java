@@ -0,0 +1,99 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.Serializable;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * A part of a multipart/form-data request body, either a text value or a workspace file.
+ */
+public class HttpRequestFormDataPart extends AbstractDescribableImpl<HttpRequestFormDataPart> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private String value;
+    private String uploadFile;
+    private String fileName;
+    private String contentType;
+
+    @DataBoundConstructor
+    public HttpRequestFormDataPart(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @param value text of the part, ignored when an upload file is set
+     */
+    @DataBoundSetter
+    public void setValue(String value) {
+        this.value = value;
+    }
+
+    public String getUploadFile() {
+        return uploadFile;
+    }
+
+    /**
+     * @param uploadFile path relative to the workspace of the file sent as the part
+     */
+    @DataBoundSetter
+    public void setUploadFile(String uploadFile) {
+        this.uploadFile = uploadFile;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * @param fileName sent for the upload file, its own name when empty
+     */
+    @DataBoundSetter
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @param contentType of the part, text/plain for a value and application/octet-stream for a file when empty
+     */
+    @DataBoundSetter
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public boolean isFile() {
+        return uploadFile != null && !uploadFile.isEmpty();
+    }
+
+    @Extension
+    public static class FormDataPartDescriptor extends Descriptor<HttpRequestFormDataPart> {
+
+        @Override
+        public String getDisplayName() {
+            return "Form Data Part";
+        }
+
+        public FormValidation doCheckName(@QueryParameter String value) {
+            return FormValidation.validateRequired(value);
+        }
+    }
+}
@@ -4,6 +4,9 @@ import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.util.FormValidation;
+
+import java.io.Serializable;
+
 import jenkins.plugins.http_request.HttpRequest;
 import org.apache.http.NameValuePair;
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -13,7 +16,9 @@ import org.kohsuke.stapler.QueryParameter;
  * @author Janario Oliveira
  */
 public class HttpRequestNameValuePair extends AbstractDescribableImpl<HttpRequestNameValuePair>
-        implements NameValuePair {
+        implements NameValuePair, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private final String name;
     private final String value;
@@ -0,0 +1,72 @@
+package jenkins.plugins.http_request.util;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Overrides the connection pool limit for a single target host.
+ */
+public class HttpRequestRouteLimit extends AbstractDescribableImpl<HttpRequestRouteLimit> {
+
+    private final String url;
+    private final int maxConnections;
+
+    @DataBoundConstructor
+    public HttpRequestRouteLimit(String url, int maxConnections) {
+        this.url = url;
+        this.maxConnections = maxConnections;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Direct routes matching this limit. A url without an explicit port also
+     * matches requests that leave the port out.
+     */
+    public List<HttpRoute> getRoutes() throws MalformedURLException {
+        URL target = new URL(url);
+        boolean secure = "https".equals(target.getProtocol());
+
+        List<HttpRoute> routes = new ArrayList<HttpRoute>();
+        int port = target.getPort() < 0 ? target.getDefaultPort() : target.getPort();
+        routes.add(new HttpRoute(new HttpHost(target.getHost(), port, target.getProtocol()), null, secure));
+        if (target.getPort() < 0) {
+            routes.add(new HttpRoute(new HttpHost(target.getHost(), -1, target.getProtocol()), null, secure));
+        }
+        return routes;
+    }
+
+    @Extension
+    public static class RouteLimitDescriptor extends Descriptor<HttpRequestRouteLimit> {
+
+        @Override
+        public String getDisplayName() {
+            return "Route Connection Limit";
+        }
+
+        public FormValidation doCheckUrl(@QueryParameter String value) {
+            return HttpRequestValidation.checkUrl(value);
+        }
+
+        public FormValidation doCheckMaxConnections(@QueryParameter String value) {
+            return FormValidation.validatePositiveInteger(value);
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHttpResponse;
+
+import jenkins.plugins.http_request.DigestAlgorithm;
+
+/**
+ * Keeps the bodies of GET responses on disk, with their validators, so later
+ * requests for the same resource are conditional and a {@code 304 Not Modified}
+ * is answered from the local copy.
+ * <p>
+ * Entries are evicted, least recently used first, once the cache holds more than
+ * its maximum size or number of entries. The body is stored as it is read by the
+ * request, only a response read to its end is stored.
+ * <p>
+ * The cache doesn't know who may read a response, authenticated requests don't use it.
+ */
+public class HttpResponseCache {
+
+    private static final Logger LOGGER = Logger.getLogger(HttpResponseCache.class.getName());
+
+    private static final String BODY_SUFFIX = ".body";
+    private static final String METADATA_SUFFIX = ".properties";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private long maxSize;
+    private int maxEntries;
+
+    /**
+     * Access ordered, the eldest entry is the least recently used.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+    private boolean loaded;
+
+    /**
+     * @param maxSize in bytes
+     */
+    public HttpResponseCache(File directory, long maxSize, int maxEntries) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.maxEntries = maxEntries;
+    }
+
+    public synchronized void setLimits(long maxSize, int maxEntries) {
+        this.maxSize = maxSize;
+        this.maxEntries = maxEntries;
+        if (loaded) {
+            evict();
+        }
+    }
+
+    /**
+     * The key of a request: its url, with the query parameters added to it, and its headers,
+     * which may all change the response.
+     */
+    public static String createKey(HttpRequestBase request) {
+        StringBuilder key = new StringBuilder(request.getURI().toString());
+        for (Header header : request.getAllHeaders()) {
+            key.append('\n').append(header.getName().toLowerCase()).append(':').append(header.getValue());
+        }
+        MessageDigest digest = DigestAlgorithm.SHA_256.createDigest();
+        digest.update(key.toString().getBytes(StandardCharsets.UTF_8));
+        return BodyDigest.toHex(digest);
+    }
+
+    /**
+     * The body of the entry returned is opened while the cache is locked, so it can still be
+     * read when the entry is evicted meanwhile; {@link Entry#release()} closes it when the
+     * entry isn't turned into a response.
+     *
+     * @return the cached response, null when there is none
+     */
+    public synchronized Entry get(String key) {
+        load();
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return entry.withBody(new FileInputStream(entry.getBodyFile()));
+        } catch (FileNotFoundException e) {
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Tees the body of a cacheable response to the cache as it is read.
+     */
+    public void store(String key, HttpResponse response) {
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || response.getEntity() == null) {
+            return;
+        }
+        CacheControl cacheControl = new CacheControl(response);
+        Header etag = response.getFirstHeader("ETag");
+        Header lastModified = response.getFirstHeader("Last-Modified");
+        if (cacheControl.noStore || (etag == null && lastModified == null && cacheControl.maxAge <= 0)) {
+            return;
+        }
+
+        Entry entry = new Entry(key,
+                etag == null ? null : etag.getValue(),
+                lastModified == null ? null : lastModified.getValue(),
+                cacheControl.noCache ? 0 : cacheControl.maxAge,
+                System.currentTimeMillis(),
+                response.getEntity().getContentType() == null ? null : response.getEntity().getContentType().getValue(),
+                0, null);
+        response.setEntity(new CachingEntity(response.getEntity(), entry));
+    }
+
+    /**
+     * Records that the server confirmed the cached response is still valid.
+     *
+     * @return the entry refreshed, with the body of the one given
+     */
+    public synchronized Entry revalidated(Entry entry, HttpResponse notModified) {
+        CacheControl cacheControl = new CacheControl(notModified);
+        Entry refreshed = new Entry(entry.key, entry.etag, entry.lastModified,
+                cacheControl.noCache ? 0 : (cacheControl.maxAge > 0 ? cacheControl.maxAge : entry.maxAge),
+                System.currentTimeMillis(), entry.contentType, entry.size, null);
+        if (entries.containsKey(entry.key)) {
+            try {
+                writeMetadata(refreshed);
+                entries.put(entry.key, refreshed);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to refresh cache entry " + entry.key, e);
+            }
+        }
+        return refreshed.withBody(entry.body);
+    }
+
+    private synchronized void commit(Entry entry, File tempFile) throws IOException {
+        load();
+        File bodyFile = new File(directory, entry.key + BODY_SUFFIX);
+        Entry stored = new Entry(entry.key, entry.etag, entry.lastModified, entry.maxAge, entry.storedAt,
+                entry.contentType, tempFile.length(), null);
+        Files.move(tempFile.toPath(), bodyFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        writeMetadata(stored);
+
+        Entry previous = entries.put(entry.key, stored);
+        if (previous != null) {
+            totalSize -= previous.size;
+        }
+        totalSize += stored.size;
+        evict();
+    }
+
+    private void writeMetadata(Entry entry) throws IOException {
+        Properties properties = new Properties();
+        putIfNotNull(properties, "etag", entry.etag);
+        putIfNotNull(properties, "lastModified", entry.lastModified);
+        putIfNotNull(properties, "contentType", entry.contentType);
+        properties.setProperty("maxAge", Long.toString(entry.maxAge));
+        properties.setProperty("storedAt", Long.toString(entry.storedAt));
+        properties.setProperty("size", Long.toString(entry.size));
+        try (OutputStream out = new FileOutputStream(new File(directory, entry.key + METADATA_SUFFIX))) {
+            properties.store(out, null);
+        }
+    }
+
+    private static void putIfNotNull(Properties properties, String name, String value) {
+        if (value != null) {
+            properties.setProperty(name, value);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext() && (totalSize > maxSize || entries.size() > maxEntries)) {
+            Entry entry = eldest.next().getValue();
+            eldest.remove();
+            totalSize -= entry.size;
+            delete(entry.key);
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalSize -= entry.size;
+        }
+        delete(key);
+    }
+
+    private void delete(String key) {
+        new File(directory, key + BODY_SUFFIX).delete();
+        new File(directory, key + METADATA_SUFFIX).delete();
+    }
+
+    /**
+     * Reads the entries left by a previous run, oldest first.
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.warning("Failed to create the HTTP response cache directory " + directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> metadataFiles = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // a response which was not read to its end
+                file.delete();
+            } else if (file.getName().endsWith(METADATA_SUFFIX)) {
+                metadataFiles.add(file);
+            }
+        }
+        Collections.sort(metadataFiles, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : metadataFiles) {
+            String key = file.getName().substring(0, file.getName().length() - METADATA_SUFFIX.length());
+            try {
+                Entry entry = readMetadata(key, file);
+                if (entry.getBodyFile().isFile()) {
+                    entries.put(key, entry);
+                    totalSize += entry.size;
+                } else {
+                    delete(key);
+                }
+            } catch (IOException | NumberFormatException e) {
+                LOGGER.log(Level.FINE, "Dropping unreadable cache entry " + key, e);
+                delete(key);
+            }
+        }
+        evict();
+    }
+
+    private Entry readMetadata(String key, File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        return new Entry(key, properties.getProperty("etag"), properties.getProperty("lastModified"),
+                Long.parseLong(properties.getProperty("maxAge", "0")),
+                Long.parseLong(properties.getProperty("storedAt", "0")),
+                properties.getProperty("contentType"),
+                Long.parseLong(properties.getProperty("size", "0")), null);
+    }
+
+    /**
+     * A cached response.
+     */
+    public final class Entry {
+        private final String key;
+        private final String etag;
+        private final String lastModified;
+        private final long maxAge;
+        private final long storedAt;
+        private final String contentType;
+        private final long size;
+        /**
+         * Opened by {@link #get(String)}, null for the entries held by the cache.
+         */
+        private final InputStream body;
+
+        private Entry(String key, String etag, String lastModified, long maxAge, long storedAt, String contentType, long size,
+                InputStream body) {
+            this.key = key;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.maxAge = maxAge;
+            this.storedAt = storedAt;
+            this.contentType = contentType;
+            this.size = size;
+            this.body = body;
+        }
+
+        private Entry withBody(InputStream body) {
+            return new Entry(key, etag, lastModified, maxAge, storedAt, contentType, size, body);
+        }
+
+        File getBodyFile() {
+            return new File(directory, key + BODY_SUFFIX);
+        }
+
+        /**
+         * @return true when the response can be used without asking the server, as allowed by its max-age
+         */
+        public boolean isFresh() {
+            return maxAge > 0 && System.currentTimeMillis() - storedAt < maxAge * 1000;
+        }
+
+        public void addConditionalHeaders(HttpRequestBase request) {
+            if (etag != null && !request.containsHeader("If-None-Match")) {
+                request.addHeader("If-None-Match", etag);
+            }
+            if (lastModified != null && !request.containsHeader("If-Modified-Since")) {
+                request.addHeader("If-Modified-Since", lastModified);
+            }
+        }
+
+        /**
+         * Closes the body when the entry isn't turned into a response.
+         */
+        public void release() {
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close the cached body " + key, e);
+                }
+            }
+        }
+
+        /**
+         * @return the cached response, as first received; its entity reads the body opened by {@link #get(String)}
+         */
+        public HttpResponse toResponse() {
+            BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+            if (etag != null) {
+                response.addHeader("ETag", etag);
+            }
+            if (lastModified != null) {
+                response.addHeader("Last-Modified", lastModified);
+            }
+            ContentType type = null;
+            if (contentType != null) {
+                response.addHeader("Content-Type", contentType);
+                try {
+                    type = ContentType.parse(contentType);
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Ignoring the cached content type " + contentType, e);
+                }
+            }
+            InputStreamEntity entity = new InputStreamEntity(body, size, type);
+            if (type == null && contentType != null) {
+                entity.setContentType(contentType);
+            }
+            response.setEntity(entity);
+            return response;
+        }
+    }
+
+    /**
+     * Directives of the Cache-Control header which matter to this cache.
+     */
+    private static class CacheControl {
+        private boolean noStore;
+        private boolean noCache;
+        private long maxAge;
+
+        CacheControl(HttpResponse response) {
+            for (Header header : response.getHeaders("Cache-Control")) {
+                for (HeaderElement element : header.getElements()) {
+                    if ("no-store".equalsIgnoreCase(element.getName())) {
+                        noStore = true;
+                    } else if ("no-cache".equalsIgnoreCase(element.getName())) {
+                        noCache = true;
+                    } else if ("max-age".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                        try {
+                            maxAge = Long.parseLong(element.getValue().trim());
+                        } catch (NumberFormatException e) {
+                            maxAge = 0;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the body to a temporary file as it is read, and stores it once read to its end.
+     */
+    private class CachingEntity extends HttpEntityWrapper {
+        private final Entry entry;
+        private CachingInputStream content;
+
+        CachingEntity(HttpEntity wrapped, Entry entry) {
+            super(wrapped);
+            this.entry = entry;
+        }
+
+        @Override
+        public synchronized InputStream getContent() throws IOException {
+            if (content == null) {
+                InputStream in = super.getContent();
+                if (in == null) {
+                    return null;
+                }
+                content = new CachingInputStream(in, entry);
+            }
+            return content;
+        }
+
+        @Override
+        public void writeTo(OutputStream outstream) throws IOException {
+            try (InputStream in = getContent()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    outstream.write(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    private class CachingInputStream extends FilterInputStream {
+        private final Entry entry;
+        private File tempFile;
+        private OutputStream out;
+
+        /**
+         * Set once the body can't be stored anymore: skipped, failed or closed before its end.
+         */
+        private boolean discarded;
+
+        CachingInputStream(InputStream in, Entry entry) {
+            super(in);
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException e) {
+                // an aborted request isn't closed
+                discard();
+                throw e;
+            }
+            if (b == -1) {
+                complete();
+            } else {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read;
+            try {
+                read = super.read(b, off, len);
+            } catch (IOException e) {
+                discard();
+                throw e;
+            }
+            if (read == -1) {
+                complete();
+            } else if (read > 0) {
+                write(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes would be missing from the cached body
+            discard();
+            return super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // a body left unread isn't stored
+            discard();
+            super.close();
+        }
+
+        /**
+         * Creates the temporary file once there is something to store, so a body never read leaves none.
+         */
+        private void open() throws IOException {
+            if (out == null) {
+                synchronized (HttpResponseCache.this) {
+                    load();
+                }
+                tempFile = File.createTempFile(entry.key, TEMP_SUFFIX, directory);
+                out = new FileOutputStream(tempFile);
+            }
+        }
+
+        private void write(byte[] b, int off, int len) {
+            if (discarded) {
+                return;
+            }
+            try {
+                open();
+                out.write(b, off, len);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Not caching the response " + entry.key, e);
+                discard();
+            }
+        }
+
+        private void complete() {
+            if (discarded) {
+                return;
+            }
+            try {
+                open();
+                out.close();
+                out = null;
+                commit(entry, tempFile);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Not caching the response " + entry.key, e);
+            } finally {
+                discard();
+            }
+        }
+
+        private void discard() {
+            discarded = true;
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed to close " + tempFile, e);
+                }
+                out = null;
+            }
+            if (tempFile != null) {
+                tempFile.delete();
+                tempFile = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HttpResponseCache" + Arrays.asList(directory, maxSize, maxEntries);
+    }
+}
@@ -1,12 +1,14 @@
 package jenkins.plugins.http_request.util;
 
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.plugins.http_request.HttpMode;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import java.net.URL;
@@ -24,6 +26,13 @@ public class RequestAction extends AbstractDescribableImpl<RequestAction> {
     private final String requestBody;
     private final List<HttpRequestNameValuePair> params;
     private final List<HttpRequestNameValuePair> headers;
+    private final transient FilePath uploadFile;
+    private transient List<HttpRequestFormDataPart> formData;
+    private transient FilePath workspace;
+    private Integer connectTimeout;
+    private Integer readTimeout;
+    private Integer leaseTimeout;
+    private Integer totalTimeout;
 
     @DataBoundConstructor
     public RequestAction(URL url, HttpMode mode, String requestBody, List<HttpRequestNameValuePair> params) {
@@ -31,11 +40,20 @@ public class RequestAction extends AbstractDescribableImpl<RequestAction> {
     }
 
     public RequestAction(URL url, HttpMode mode, String requestBody, List<HttpRequestNameValuePair> params, List<HttpRequestNameValuePair> headers) {
+        this(url, mode, requestBody, params, headers, null);
+    }
+
+    /**
+     * @param uploadFile file sent as the request body in place of {@code requestBody}, may be null
+     */
+    public RequestAction(URL url, HttpMode mode, String requestBody, List<HttpRequestNameValuePair> params,
+            List<HttpRequestNameValuePair> headers, FilePath uploadFile) {
         this.url = url;
         this.mode = mode;
         this.requestBody = requestBody;
         this.params = params == null ? new ArrayList<HttpRequestNameValuePair>() : params;
         this.headers = headers  == null ? new ArrayList<HttpRequestNameValuePair>() : headers;
+        this.uploadFile = uploadFile;
     }
 
     public URL getUrl() {
@@ -58,6 +76,70 @@ public class RequestAction extends AbstractDescribableImpl<RequestAction> {
         return requestBody;
     }
 
+    public FilePath getUploadFile() {
+        return uploadFile;
+    }
+
+    /**
+     * @param formData parts of a multipart/form-data body sent in place of {@code requestBody}
+     * @param workspace where the upload files of the parts are, may be null when no part has one
+     */
+    public void setFormData(List<HttpRequestFormDataPart> formData, FilePath workspace) {
+        this.formData = formData;
+        this.workspace = workspace;
+    }
+
+    public List<HttpRequestFormDataPart> getFormData() {
+        return formData == null ? Collections.<HttpRequestFormDataPart>emptyList() : Collections.unmodifiableList(formData);
+    }
+
+    public FilePath getWorkspace() {
+        return workspace;
+    }
+
+    @DataBoundSetter
+    public void setConnectTimeout(Integer connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Integer getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @DataBoundSetter
+    public void setReadTimeout(Integer readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public Integer getReadTimeout() {
+        return readTimeout;
+    }
+
+    @DataBoundSetter
+    public void setLeaseTimeout(Integer leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    public Integer getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    @DataBoundSetter
+    public void setTotalTimeout(Integer totalTimeout) {
+        this.totalTimeout = totalTimeout;
+    }
+
+    public Integer getTotalTimeout() {
+        return totalTimeout;
+    }
+
+    /**
+     * @param timeout in seconds, for the connect, read and lease timeouts not set on this action
+     */
+    public RequestTimeouts getTimeouts(Integer timeout) {
+        return RequestTimeouts.of(timeout, connectTimeout, readTimeout, leaseTimeout, totalTimeout);
+    }
+
     @Extension
     public static class ActionFormAuthenticationDescriptor extends Descriptor<RequestAction> {
 
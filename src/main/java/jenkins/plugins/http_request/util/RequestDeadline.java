@@ -0,0 +1,97 @@
+package jenkins.plugins.http_request.util;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.util.Timer;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Aborts the watched request once its total timeout elapses, wherever it is:
+ * waiting for a connection, sending, or reading the response body.
+ */
+public final class RequestDeadline implements Runnable {
+
+    private final int totalTimeout;
+    private final long startedAt = System.currentTimeMillis();
+    private final ScheduledFuture<?> scheduled;
+    private HttpRequestBase request;
+    private Future<?> future;
+    private boolean expired;
+
+    private RequestDeadline(int totalTimeout, ScheduledExecutorService scheduler) {
+        this.totalTimeout = totalTimeout;
+        this.scheduled = totalTimeout > 0 ? scheduler.schedule(this, totalTimeout, TimeUnit.MILLISECONDS) : null;
+    }
+
+    /**
+     * @param totalTimeout in milliseconds, 0 for no deadline
+     */
+    public static RequestDeadline start(int totalTimeout) {
+        return new RequestDeadline(totalTimeout, totalTimeout > 0 ? Timer.get() : null);
+    }
+
+    /**
+     * Same as {@link #start(int)} on a JVM without the Jenkins timer, an agent.
+     */
+    public static RequestDeadline start(int totalTimeout, ScheduledExecutorService scheduler) {
+        return new RequestDeadline(totalTimeout, scheduler);
+    }
+
+    /**
+     * Aborts the request when the deadline elapses, at once when it has already.
+     */
+    public synchronized void watch(HttpRequestBase request) {
+        this.request = request;
+        if (expired) {
+            request.abort();
+        }
+    }
+
+    /**
+     * Cancels the asynchronous request when the deadline elapses, at once when it has already.
+     */
+    public synchronized void watch(Future<?> future) {
+        this.future = future;
+        if (expired) {
+            future.cancel(true);
+        }
+    }
+
+    @Override
+    public synchronized void run() {
+        expired = true;
+        if (request != null) {
+            request.abort();
+        }
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    public synchronized boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * @return milliseconds left before the deadline, {@link Long#MAX_VALUE} when there is none
+     */
+    public long getRemaining() {
+        if (totalTimeout <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, startedAt + totalTimeout - System.currentTimeMillis());
+    }
+
+    public String getMessage() {
+        return "Fail: the request didn't complete within its total timeout of " + totalTimeout + " ms";
+    }
+
+    public void cancel() {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.Serializable;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Timeouts of a request, in milliseconds, 0 when not set.
+ * <p>
+ * The connect timeout bounds establishing the connection, the read timeout the
+ * wait for each packet of the response, and the lease timeout the wait for a
+ * connection of the pool. The total timeout bounds the whole request, the
+ * response body included, see {@link RequestDeadline}.
+ */
+public final class RequestTimeouts implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final RequestTimeouts NONE = new RequestTimeouts(0, 0, 0, 0);
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int leaseTimeout;
+    private final int totalTimeout;
+
+    public RequestTimeouts(int connectTimeout, int readTimeout, int leaseTimeout, int totalTimeout) {
+        this.connectTimeout = Math.max(0, connectTimeout);
+        this.readTimeout = Math.max(0, readTimeout);
+        this.leaseTimeout = Math.max(0, leaseTimeout);
+        this.totalTimeout = Math.max(0, totalTimeout);
+    }
+
+    /**
+     * @param timeout in seconds, the connect, read and lease timeouts which are not set
+     * @param connectTimeout may be null
+     * @param readTimeout may be null
+     * @param leaseTimeout may be null
+     * @param totalTimeout may be null
+     */
+    public static RequestTimeouts of(Integer timeout, Integer connectTimeout, Integer readTimeout,
+            Integer leaseTimeout, Integer totalTimeout) {
+        int defaultTimeout = timeout == null || timeout <= 0 ? 0 : timeout * 1000;
+        return new RequestTimeouts(
+                valueOf(connectTimeout, defaultTimeout),
+                valueOf(readTimeout, defaultTimeout),
+                valueOf(leaseTimeout, defaultTimeout),
+                valueOf(totalTimeout, 0));
+    }
+
+    /**
+     * @param timeout in seconds, for the connect, read and lease timeouts
+     */
+    public static RequestTimeouts of(Integer timeout) {
+        return of(timeout, null, null, null, null);
+    }
+
+    private static int valueOf(Integer value, int defaultValue) {
+        return value == null || value <= 0 ? defaultValue : value;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public int getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    public int getTotalTimeout() {
+        return totalTimeout;
+    }
+
+    /**
+     * Sets the timeouts on the request itself, they take precedence over those of the client.
+     */
+    public void apply(HttpRequestBase request) {
+        HttpParams params = request.getParams();
+        if (connectTimeout > 0) {
+            params.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, connectTimeout);
+        }
+        if (readTimeout > 0) {
+            params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, readTimeout);
+            params.setIntParameter("http.protocol.head-body-timeout", readTimeout);
+        }
+        if (leaseTimeout > 0) {
+            params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, leaseTimeout);
+        }
+    }
+
+    /**
+     * Timeouts of a request sent by the asynchronous client.
+     *
+     * @param defaultLeaseTimeout in milliseconds, used when no lease timeout is set
+     */
+    public RequestConfig createRequestConfig(int defaultLeaseTimeout) {
+        RequestConfig.Builder config = RequestConfig.custom();
+        if (leaseTimeout > 0) {
+            config.setConnectionRequestTimeout(leaseTimeout);
+        } else if (defaultLeaseTimeout > 0) {
+            config.setConnectionRequestTimeout(defaultLeaseTimeout);
+        }
+        if (connectTimeout > 0) {
+            config.setConnectTimeout(connectTimeout);
+        }
+        if (readTimeout > 0) {
+            config.setSocketTimeout(readTimeout);
+        }
+        return config.build();
+    }
+}
@@ -0,0 +1,111 @@
+package jenkins.plugins.http_request.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Range;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import jenkins.plugins.http_request.HttpRequest;
+
+/**
+ * Compiled form of a response codes specification, such as {@code 100:399,404}.
+ * <p>
+ * The usual codes, 100 to 599, are looked up in a table holding the first range
+ * of the specification containing each of them, the ranges reaching outside of
+ * them are kept aside and scanned. Compiled matchers are immutable and shared
+ * through a bounded cache, so a specification is parsed once.
+ */
+public final class ResponseCodeMatcher {
+
+    private static final int MIN_CODE = 100;
+    private static final int MAX_CODE = 599;
+    private static final int CACHE_SIZE = 256;
+
+    private static final LoadingCache<String, ResponseCodeMatcher> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(CACHE_SIZE)
+            .build(new CacheLoader<String, ResponseCodeMatcher>() {
+                @Override
+                public ResponseCodeMatcher load(String value) {
+                    return new ResponseCodeMatcher(HttpRequest.DescriptorImpl.parseToRange(value));
+                }
+            });
+
+    private final List<Range<Integer>> ranges;
+    /**
+     * Index in {@link #ranges} of the first range containing each usual code, -1 when none does.
+     */
+    private final int[] firstRanges = new int[MAX_CODE - MIN_CODE + 1];
+    private final List<Range<Integer>> overflowRanges = new ArrayList<>();
+
+    private ResponseCodeMatcher(List<Range<Integer>> ranges) {
+        this.ranges = Collections.unmodifiableList(new ArrayList<>(ranges));
+        Arrays.fill(firstRanges, -1);
+        for (int i = 0; i < ranges.size(); i++) {
+            Range<Integer> range = ranges.get(i);
+            int from = Math.max(range.lowerEndpoint(), MIN_CODE);
+            int to = Math.min(range.upperEndpoint(), MAX_CODE);
+            for (int code = from; code <= to; code++) {
+                if (firstRanges[code - MIN_CODE] < 0) {
+                    firstRanges[code - MIN_CODE] = i;
+                }
+            }
+            if (range.lowerEndpoint() < MIN_CODE || range.upperEndpoint() > MAX_CODE) {
+                overflowRanges.add(range);
+            }
+        }
+    }
+
+    /**
+     * @param value null or blank for the {@link HttpRequest.DescriptorImpl#validResponseCodes default codes}
+     * @throws IllegalArgumentException when the specification is wrong
+     */
+    public static ResponseCodeMatcher compile(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            value = HttpRequest.DescriptorImpl.validResponseCodes;
+        }
+        try {
+            return CACHE.getUnchecked(value.trim());
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public boolean matches(int code) {
+        return getMatchingRange(code) != null;
+    }
+
+    /**
+     * @return the first range of the specification containing the code, null when none does
+     */
+    public Range<Integer> getMatchingRange(int code) {
+        if (code >= MIN_CODE && code <= MAX_CODE) {
+            int index = firstRanges[code - MIN_CODE];
+            return index < 0 ? null : ranges.get(index);
+        }
+        // kept in the order of the specification
+        for (Range<Integer> range : overflowRanges) {
+            if (range.contains(code)) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    public List<Range<Integer>> getRanges() {
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return ranges.toString();
+    }
+}
@@ -0,0 +1,217 @@
+package jenkins.plugins.http_request.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Pattern;
+
+/**
+ * Checks a response body as it is read, without keeping it.
+ * <p>
+ * Required and forbidden substrings are all searched in a single pass by an
+ * Aho-Corasick automaton, regular expressions are matched line by line.
+ * The verdict is known as soon as a forbidden substring shows up, or once every
+ * required substring and expression is found when nothing is forbidden, so the
+ * rest of the body doesn't need to be read.
+ */
+public class ResponseContentMatcher {
+
+    /**
+     * Longer lines are matched against the regular expressions in pieces.
+     */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final List<String> substrings = new ArrayList<>();
+    private final int requiredCount;
+    private final List<Pattern> patterns;
+
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+    private final List<List<Integer>> outputs = new ArrayList<>();
+    private int[] failures;
+
+    private int state;
+    private final boolean[] found;
+    private final boolean[] matched;
+    private int remaining;
+    private String forbiddenFound;
+    private long length;
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * @param required substrings which must all be in the body
+     * @param forbidden substrings which must not be in the body
+     * @param patterns regular expressions which must all match a line of the body
+     */
+    public ResponseContentMatcher(Collection<String> required, Collection<String> forbidden, Collection<Pattern> patterns) {
+        for (String substring : required) {
+            if (!substring.isEmpty()) {
+                substrings.add(substring);
+            }
+        }
+        this.requiredCount = substrings.size();
+        for (String substring : forbidden) {
+            if (!substring.isEmpty()) {
+                substrings.add(substring);
+            }
+        }
+        this.patterns = new ArrayList<>(patterns);
+        this.found = new boolean[substrings.size()];
+        this.matched = new boolean[this.patterns.size()];
+        this.remaining = requiredCount + this.patterns.size();
+        buildAutomaton();
+    }
+
+    /**
+     * @param lines one entry per line, blank lines ignored
+     */
+    public static List<String> splitLines(String lines) {
+        if (lines == null || lines.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>();
+        for (String line : lines.split("\r?\n")) {
+            if (!line.trim().isEmpty()) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return substrings.isEmpty() && patterns.isEmpty();
+    }
+
+    /**
+     * @return true when reading more of the body can't change the verdict
+     */
+    public boolean isDecided() {
+        return forbiddenFound != null || (remaining == 0 && substrings.size() == requiredCount);
+    }
+
+    public void update(char[] chars, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            char c = chars[i];
+            length++;
+            step(c);
+            if (!patterns.isEmpty()) {
+                if (c == '\n') {
+                    matchLine();
+                } else {
+                    line.append(c);
+                    if (line.length() >= MAX_LINE_LENGTH) {
+                        matchLine();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Call once the whole body, or enough of it to decide, has been read.
+     */
+    public void finish() {
+        if (line.length() > 0) {
+            matchLine();
+        }
+    }
+
+    /**
+     * @return why the body isn't valid, null when it is
+     */
+    public String getFailure() {
+        if (forbiddenFound != null) {
+            return "Fail: Response contains '" + forbiddenFound + "'";
+        }
+        for (int i = 0; i < requiredCount; i++) {
+            if (!found[i]) {
+                return "Fail: Response with length " + length + " doesn't contain '" + substrings.get(i) + "'";
+            }
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+            if (!matched[i]) {
+                return "Fail: Response with length " + length + " doesn't match '" + patterns.get(i).pattern() + "'";
+            }
+        }
+        return null;
+    }
+
+    private void step(char c) {
+        Integer next = transitions.get(state).get(c);
+        while (next == null && state != 0) {
+            state = failures[state];
+            next = transitions.get(state).get(c);
+        }
+        state = next == null ? 0 : next;
+        for (int index : outputs.get(state)) {
+            if (found[index]) {
+                continue;
+            }
+            found[index] = true;
+            if (index < requiredCount) {
+                remaining--;
+            } else if (forbiddenFound == null) {
+                forbiddenFound = substrings.get(index);
+            }
+        }
+    }
+
+    private void matchLine() {
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+        }
+        String text = line.substring(0, end);
+        for (int i = 0; i < patterns.size(); i++) {
+            if (!matched[i] && patterns.get(i).matcher(text).find()) {
+                matched[i] = true;
+                remaining--;
+            }
+        }
+        line.setLength(0);
+    }
+
+    private void buildAutomaton() {
+        addNode();
+        for (int index = 0; index < substrings.size(); index++) {
+            int node = 0;
+            for (char c : substrings.get(index).toCharArray()) {
+                Integer next = transitions.get(node).get(c);
+                if (next == null) {
+                    next = addNode();
+                    transitions.get(node).put(c, next);
+                }
+                node = next;
+            }
+            outputs.get(node).add(index);
+        }
+
+        failures = new int[transitions.size()];
+        Queue<Integer> queue = new ArrayDeque<>(transitions.get(0).values());
+        while (!queue.isEmpty()) {
+            int node = queue.remove();
+            for (Map.Entry<Character, Integer> transition : transitions.get(node).entrySet()) {
+                int child = transition.getValue();
+                queue.add(child);
+                int failure = failures[node];
+                Integer next = transitions.get(failure).get(transition.getKey());
+                while (next == null && failure != 0) {
+                    failure = failures[failure];
+                    next = transitions.get(failure).get(transition.getKey());
+                }
+                failures[child] = next == null || next == child ? 0 : next;
+                outputs.get(child).addAll(outputs.get(failures[child]));
+            }
+        }
+    }
+
+    private int addNode() {
+        transitions.add(new HashMap<Character, Integer>());
+        outputs.add(new ArrayList<Integer>());
+        return transitions.size() - 1;
+    }
+}
@@ -0,0 +1,423 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import hudson.FilePath;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.plugins.http_request.DigestAlgorithm;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Writes the body of a GET response aside of the output file, so that a download
+ * cut short continues where it stopped instead of starting over.
+ * <p>
+ * The body is written to a {@code .download} file next to the output file, and
+ * moved to the completed file given once it is whole; the caller moves that one
+ * into the output file once the response is valid. A response whose status isn't
+ * valid isn't written at all.
+ * <p>
+ * While the file is written its validator, the strong ETag of the body or else
+ * its Last-Modified date, is kept next to it. An interrupted download is asked
+ * again with {@code Range: bytes=N-} and {@code If-Range: validator}, up to the
+ * given number of times, and a partial file left by an earlier build is continued
+ * the same way. When the body changed, or the server doesn't serve ranges, it is
+ * sent whole and the download starts over.
+ * <p>
+ * A large body can be downloaded in several segments at once, see
+ * {@link SegmentedDownload}, when the output file is on the node sending the
+ * request. The body is downloaded in a single stream otherwise, or when the
+ * server doesn't accept ranges.
+ * <p>
+ * Ranges are of the body as it is sent, so the body is asked uncompressed.
+ */
+public class ResumableDownload {
+
+    static final String STATE_SUFFIX = ".resume";
+    static final String DOWNLOAD_SUFFIX = ".download";
+
+    /**
+     * Most segments a body is downloaded in, each one taking a connection to the host.
+     */
+    public static final int MAX_SEGMENTS = 8;
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Sends the request again, asking the rest of the body; called by several
+     * threads at once for the segments of the body.
+     */
+    public interface Sender {
+        HttpResponse send(HttpRequestBase request) throws IOException, InterruptedException;
+    }
+
+    private final FilePath outputFile;
+    private final FilePath downloadFile;
+    private final FilePath completedFile;
+    private final FilePath stateFile;
+    private final int maxResumes;
+    private final int segments;
+    private final PrintStream logger;
+
+    /**
+     * First byte of the range asked, 0 when the whole body is.
+     */
+    private long offset;
+    private String validator;
+    private long length = -1;
+    private int resumes;
+    private DigestAlgorithm digestAlgorithm = DigestAlgorithm.NONE;
+    private MessageDigest messageDigest;
+    private String digest;
+    private boolean written;
+
+    /**
+     * @param completedFile where the whole body is moved, next to the output file
+     * @param maxResumes how many times the download, or each of its segments, is resumed within
+     * a request; 0 to neither resume it nor continue a partial file
+     * @param segments how many ranges of the body are downloaded at once, 1 for a single stream;
+     * at most {@link #MAX_SEGMENTS}
+     */
+    public ResumableDownload(FilePath outputFile, FilePath completedFile, int maxResumes, int segments, PrintStream logger) {
+        this.outputFile = outputFile;
+        this.downloadFile = outputFile.sibling(outputFile.getName() + DOWNLOAD_SUFFIX);
+        this.completedFile = completedFile;
+        this.stateFile = outputFile.sibling(outputFile.getName() + STATE_SUFFIX);
+        this.maxResumes = maxResumes;
+        this.segments = Math.min(segments, MAX_SEGMENTS);
+        this.logger = logger;
+    }
+
+    /**
+     * @return the file the whole body was moved to, see {@link #isWritten()}
+     */
+    public FilePath getCompletedFile() {
+        return completedFile;
+    }
+
+    /**
+     * Computes the digest of the body while it is written, by reading the file back
+     * once it is complete when it wasn't written in order: resumed or in segments.
+     */
+    public void setDigestAlgorithm(DigestAlgorithm digestAlgorithm) {
+        this.digestAlgorithm = digestAlgorithm;
+    }
+
+    /**
+     * @return whether {@link #transfer} wrote the body to the completed file, it didn't when the status
+     * of the response isn't valid, or the range asked was answered with an error
+     */
+    public boolean isWritten() {
+        return written;
+    }
+
+    /**
+     * @return the digest of the body written, in hexadecimal; null when none is computed
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Asks the body uncompressed, from the end of the partial file left by an earlier request if any.
+     */
+    public void prepare(HttpRequestBase request) throws IOException, InterruptedException {
+        request.setHeader("Accept-Encoding", "identity");
+        if (maxResumes <= 0 || !loadState() || !downloadFile.exists()) {
+            return;
+        }
+        long size = downloadFile.length();
+        if (size > 0 && (length < 0 || size < length)) {
+            logger.println("Resuming the partial download of " + outputFile.getName() + " from byte " + size);
+            askRange(request, size);
+        }
+    }
+
+    /**
+     * Writes the body to the completed file, resuming it when it is interrupted.
+     * Only a 200 response is resumed, any other with a valid status is written
+     * as it is. A response with a status which isn't valid, or an error
+     * answering a range, is returned unread: the partial file and its state are
+     * then kept for a later request.
+     *
+     * @return the response, reported with status 200 and the whole length when it ends a resumed
+     * download; its entity is consumed when {@link #isWritten()}
+     */
+    public HttpResponse transfer(HttpRequestBase request, HttpResponse response, Sender sender,
+            ResponseCodeMatcher validResponseCodes)
+    throws IOException, InterruptedException
+    {
+        written = false;
+        while (true) {
+            int status = response.getStatusLine().getStatusCode();
+            if (offset > 0 && status != HttpStatus.SC_OK && status != HttpStatus.SC_PARTIAL_CONTENT
+                    && status != HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                logger.println("The rest of " + outputFile.getName() + " was answered with " + response.getStatusLine()
+                        + ", the partial download is kept");
+                return response;
+            }
+            if ((offset == 0 || status == HttpStatus.SC_OK) && !validResponseCodes.matches(status)) {
+                return response;
+            }
+            if (offset > 0 && status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                logger.println("The partial download of " + outputFile.getName() + " can't be resumed, it starts over");
+                request.releaseConnection();
+                request.removeHeaders("Range");
+                request.removeHeaders("If-Range");
+                offset = 0;
+                response = sender.send(request);
+                continue;
+            }
+            boolean resumed = offset > 0 && status == HttpStatus.SC_PARTIAL_CONTENT;
+            if (resumed && getRangeStart(response) != offset) {
+                request.abort();
+                throw new IOException("Asked the body of " + outputFile.getName() + " from byte " + offset
+                        + " but got the range " + response.getFirstHeader("Content-Range"));
+            }
+            written = true;
+            if (!resumed) {
+                if (offset > 0) {
+                    logger.println("The server sent the whole body, the download of " + outputFile.getName() + " starts over");
+                }
+                offset = 0;
+                if (status == HttpStatus.SC_OK && segments > 1 && isSegmented(response)) {
+                    // the preallocated file can't be continued by a later build
+                    deleteState();
+                    long size = new SegmentedDownload(new File(downloadFile.getRemote()), request, response, sender,
+                            segments, maxResumes, logger).transfer();
+                    logger.println("Download of " + outputFile.getName() + " completed, " + size + " bytes");
+                    digestFile();
+                    moveToCompletedFile();
+                    return response;
+                }
+                if (status == HttpStatus.SC_OK && maxResumes > 0) {
+                    saveState(response);
+                } else {
+                    deleteState();
+                }
+            }
+
+            try {
+                long size = write(response.getEntity());
+                deleteState();
+                if (resumed) {
+                    logger.println("Download of " + outputFile.getName() + " completed, " + size + " bytes");
+                    digestFile();
+                } else if (messageDigest != null) {
+                    digest = BodyDigest.toHex(messageDigest);
+                }
+                moveToCompletedFile();
+                return resumed ? complete(response, size) : response;
+            } catch (IOException e) {
+                // set when the request was aborted, by its total timeout or an interruption
+                boolean aborted = request.isAborted();
+                // closing the body would read the rest of it
+                request.abort();
+                if (aborted || validator == null || resumes >= maxResumes) {
+                    throw e;
+                }
+                resumes++;
+                long size = downloadFile.length();
+                logger.println(String.format("Download of %s interrupted at byte %d with %s(%s), resuming (%d of %d)",
+                        outputFile.getName(), size, e.getClass().getName(), e.getMessage(), resumes, maxResumes));
+                request.releaseConnection();
+                askRange(request, size);
+                response = sender.send(request);
+            }
+        }
+    }
+
+    private boolean isSegmented(HttpResponse response) {
+        String reason = SegmentedDownload.check(response);
+        if (reason == null && downloadFile.isRemote()) {
+            reason = "the output file isn't on the node sending the request";
+        }
+        if (reason != null) {
+            logger.println("The body of " + outputFile.getName() + " is downloaded in a single stream, " + reason);
+            return false;
+        }
+        return true;
+    }
+
+    private void askRange(HttpRequestBase request, long from) {
+        offset = from;
+        request.setHeader("Range", "bytes=" + from + "-");
+        request.setHeader("If-Range", validator);
+    }
+
+    /**
+     * @return the size of the output file
+     */
+    private long write(HttpEntity entity) throws IOException, InterruptedException {
+        if (entity == null) {
+            if (offset == 0) {
+                downloadFile.write().close();
+            }
+            return offset;
+        }
+        long expected = entity.getContentLength() < 0 ? length : offset + entity.getContentLength();
+        InputStream in = entity.getContent();
+        messageDigest = null;
+        if (digestAlgorithm != DigestAlgorithm.NONE && offset == 0) {
+            messageDigest = digestAlgorithm.createDigest();
+            in = new DigestInputStream(in, messageDigest);
+        }
+        long size = offset;
+        try (OutputStream out = offset == 0 ? downloadFile.write() : downloadFile.act(new OpenAt(offset))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long reported = System.currentTimeMillis();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                size += read;
+                long now = System.currentTimeMillis();
+                if (now - reported >= PROGRESS_INTERVAL) {
+                    reported = now;
+                    logProgress(size, expected);
+                }
+            }
+        }
+        in.close();
+        return size;
+    }
+
+    private void logProgress(long size, long expected) {
+        if (expected > 0) {
+            logger.println(String.format("Downloaded %d of %d bytes to %s (%d%%)",
+                    size, expected, outputFile.getName(), size * 100 / expected));
+        } else {
+            logger.println(String.format("Downloaded %d bytes to %s", size, outputFile.getName()));
+        }
+    }
+
+    private void digestFile() throws IOException, InterruptedException {
+        if (digestAlgorithm != DigestAlgorithm.NONE) {
+            digest = BodyDigest.digestFile(downloadFile, digestAlgorithm);
+        }
+    }
+
+    /**
+     * Moves the whole body to the completed file.
+     */
+    private void moveToCompletedFile() throws IOException, InterruptedException {
+        // a file can't be renamed over another on Windows
+        completedFile.delete();
+        downloadFile.renameTo(completedFile);
+    }
+
+    private static HttpResponse complete(HttpResponse response, long size) {
+        response.setStatusLine(response.getProtocolVersion(), HttpStatus.SC_OK, "OK");
+        response.removeHeaders("Content-Range");
+        // of the last range only
+        response.removeHeaders("Content-MD5");
+        response.setHeader("Content-Length", Long.toString(size));
+        return response;
+    }
+
+    /**
+     * @return the first byte of the range sent, -1 when it isn't a single range
+     */
+    static long getRangeStart(HttpResponse response) {
+        Header header = response.getFirstHeader("Content-Range");
+        if (header == null) {
+            return -1;
+        }
+        Matcher matcher = CONTENT_RANGE.matcher(header.getValue().trim());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * @return the strong validator of the response, null when it has none
+     */
+    static String getValidator(HttpResponse response) {
+        Header etag = response.getFirstHeader("ETag");
+        if (etag != null && !etag.getValue().startsWith("W/")) {
+            return etag.getValue();
+        }
+        Header lastModified = response.getFirstHeader("Last-Modified");
+        return lastModified == null ? null : lastModified.getValue();
+    }
+
+    private boolean loadState() throws IOException, InterruptedException {
+        if (!stateFile.exists()) {
+            return false;
+        }
+        Properties state = new Properties();
+        try (InputStream in = stateFile.read()) {
+            state.load(in);
+        }
+        validator = state.getProperty("validator");
+        try {
+            length = Long.parseLong(state.getProperty("length", "-1"));
+        } catch (NumberFormatException e) {
+            length = -1;
+        }
+        return validator != null;
+    }
+
+    private void saveState(HttpResponse response) throws IOException, InterruptedException {
+        validator = getValidator(response);
+        HttpEntity entity = response.getEntity();
+        length = entity == null ? 0 : entity.getContentLength();
+        if (validator == null) {
+            logger.println("The response has no ETag nor Last-Modified header, the download of " + outputFile.getName() + " can't be resumed");
+            deleteState();
+            return;
+        }
+        Properties state = new Properties();
+        state.setProperty("validator", validator);
+        state.setProperty("length", Long.toString(length));
+        try (OutputStream out = stateFile.write()) {
+            state.store(out, "Partial download of " + outputFile.getName());
+        }
+    }
+
+    private void deleteState() throws IOException, InterruptedException {
+        validator = null;
+        if (stateFile.exists()) {
+            stateFile.delete();
+        }
+    }
+
+    /**
+     * Opens the file for writing from the given offset, dropping what follows it.
+     */
+    private static class OpenAt extends MasterToSlaveFileCallable<OutputStream> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long offset;
+
+        OpenAt(long offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public OutputStream invoke(File f, VirtualChannel channel) throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+                file.setLength(offset);
+            }
+            return new RemoteOutputStream(new FileOutputStream(f, true));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import jenkins.plugins.http_request.HttpMode;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * When and after how long a failed request is sent again.
+ * <p>
+ * A request is retried when it fails to connect, times out, the connection is
+ * reset or closed without a response, or it is answered by one of the retried
+ * response codes. The delay doubles with each attempt, half of it randomized so
+ * concurrent clients spread their retries, unless the server sets it with a
+ * {@code Retry-After} header.
+ */
+public class RetryPolicy {
+
+    private static final Set<HttpMode> IDEMPOTENT_MODES = EnumSet.of(HttpMode.GET, HttpMode.HEAD, HttpMode.PUT, HttpMode.DELETE);
+
+    static final long MAX_DELAY = TimeUnit.MINUTES.toMillis(1);
+    static final long MAX_RETRY_AFTER = TimeUnit.MINUTES.toMillis(5);
+
+    private final int maxAttempts;
+    private final ResponseCodeMatcher responseCodes;
+    private final long delay;
+    private final boolean nonIdempotent;
+
+    /**
+     * @param maxAttempts attempts including the first one
+     * @param responseCodes response codes retried, as in the valid response codes
+     * @param delay milliseconds before the first retry
+     * @param nonIdempotent retry POST and PATCH requests too
+     */
+    public RetryPolicy(int maxAttempts, String responseCodes, long delay, boolean nonIdempotent) {
+        this.maxAttempts = maxAttempts;
+        this.responseCodes = responseCodes == null || responseCodes.trim().isEmpty()
+                ? null : ResponseCodeMatcher.compile(responseCodes);
+        this.delay = delay;
+        this.nonIdempotent = nonIdempotent;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return true when the request can be sent once more after the given attempt
+     */
+    public boolean canRetry(int attempt, HttpMode mode, HttpRequestBase request) {
+        if (attempt >= maxAttempts || !(nonIdempotent || IDEMPOTENT_MODES.contains(mode))) {
+            return false;
+        }
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            return entity == null || entity.isRepeatable();
+        }
+        return true;
+    }
+
+    public boolean isRetried(HttpResponse response) {
+        return responseCodes != null && responseCodes.matches(response.getStatusLine().getStatusCode());
+    }
+
+    public boolean isRetried(IOException e) {
+        return e instanceof ConnectException || e instanceof SocketTimeoutException
+                || e instanceof ConnectTimeoutException || e instanceof NoHttpResponseException
+                || e instanceof SocketException;
+    }
+
+    /**
+     * @param attempt the attempt which failed, from 1
+     * @param response its response, null when it failed with an exception
+     * @return milliseconds to wait before the next attempt
+     */
+    public long getDelay(int attempt, HttpResponse response) {
+        long retryAfter = response == null ? -1 : getRetryAfter(response.getFirstHeader("Retry-After"));
+        if (retryAfter >= 0) {
+            return Math.min(retryAfter, MAX_RETRY_AFTER);
+        }
+
+        long backoff = Math.min(MAX_DELAY, delay << Math.min(attempt - 1, 30));
+        if (backoff <= 1) {
+            return backoff;
+        }
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * @return the milliseconds set by the header, in seconds or as a date, -1 when there are none
+     */
+    static long getRetryAfter(Header header) {
+        if (header == null || header.getValue() == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date == null ? -1 : Math.max(0, date.getTime() - System.currentTimeMillis());
+        }
+    }
+}
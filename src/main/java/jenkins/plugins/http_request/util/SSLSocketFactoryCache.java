@@ -0,0 +1,213 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+
+/**
+ * Keeps one {@link SSLSocketFactory}, its asynchronous counterpart and the
+ * HTTP/2 client, per trust configuration.
+ * <p>
+ * Reusing the factory keeps its {@link SSLContext}, and with it the client
+ * session cache, so repeated requests to a host resume the TLS session
+ * instead of doing a full handshake.
+ * <p>
+ * A trust store which is replaced, or whose password changes, is loaded
+ * again: the entry of its configuration is replaced, and the idle HTTP/2
+ * connections of the previous one are closed.
+ */
+public class SSLSocketFactoryCache {
+
+    private static final int SESSION_CACHE_SIZE = 1000;
+    private static final int SESSION_TIMEOUT = 24 * 60 * 60;
+
+    private static final int HTTP2_MAX_IDLE_CONNECTIONS = 20;
+    private static final int HTTP2_KEEP_ALIVE = 5;
+
+    private static final ConcurrentMap<String, Entry> ENTRIES = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param trustAll trust any certificate and host name, the plugin historical behaviour
+     * @param trustStore path of a key store on the controller, the JVM trust store when empty
+     * @param trustStorePassword password of the key store, may be null
+     */
+    public static SSLSocketFactory get(boolean trustAll, String trustStore, String trustStorePassword) throws IOException {
+        return getEntry(trustAll, trustStore, trustStorePassword).socketFactory;
+    }
+
+    /**
+     * Same trust configuration as {@link #get(boolean, String, String)}, for the asynchronous client.
+     */
+    public static SSLIOSessionStrategy getSessionStrategy(boolean trustAll, String trustStore, String trustStorePassword) throws IOException {
+        return getEntry(trustAll, trustStore, trustStorePassword).sessionStrategy;
+    }
+
+    /**
+     * Same trust configuration as {@link #get(boolean, String, String)}, for HTTP/2 requests.
+     * The client is created on first use, its connections are shared by every request.
+     */
+    public static OkHttpClient getHttp2Client(boolean trustAll, String trustStore, String trustStorePassword) throws IOException {
+        return getEntry(trustAll, trustStore, trustStorePassword).getHttp2Client();
+    }
+
+    private static Entry getEntry(boolean trustAll, String trustStore, String trustStorePassword) throws IOException {
+        File trustStoreFile = trustStore == null || trustStore.trim().isEmpty() ? null : new File(trustStore.trim());
+        String key = trustAll + "|" + (trustStoreFile == null ? "" : trustStoreFile.getAbsolutePath());
+        // the modification time makes a replaced trust store load again
+        String version = (trustStoreFile == null ? 0 : trustStoreFile.lastModified())
+                + "|" + (trustStorePassword == null ? 0 : trustStorePassword.hashCode());
+
+        Entry entry = ENTRIES.get(key);
+        if (entry != null && entry.version.equals(version)) {
+            return entry;
+        }
+        synchronized (ENTRIES) {
+            entry = ENTRIES.get(key);
+            if (entry != null && entry.version.equals(version)) {
+                return entry;
+            }
+            Entry created = create(version, trustAll, trustStoreFile, trustStorePassword);
+            ENTRIES.put(key, created);
+            if (entry != null) {
+                entry.release();
+            }
+            return created;
+        }
+    }
+
+    private static Entry create(String version, boolean trustAll, File trustStoreFile, String trustStorePassword)
+            throws IOException {
+        try {
+            TrustManager[] trustManagers;
+            if (trustAll) {
+                trustManagers = new TrustManager[]{new TrustAllManager()};
+            } else {
+                TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                trustManagerFactory.init(loadTrustStore(trustStoreFile, trustStorePassword));
+                trustManagers = trustManagerFactory.getTrustManagers();
+            }
+
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, trustManagers, null);
+            SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+            sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+
+            X509TrustManager trustManager = null;
+            for (TrustManager manager : trustManagers) {
+                if (manager instanceof X509TrustManager) {
+                    trustManager = (X509TrustManager) manager;
+                    break;
+                }
+            }
+            if (trustManager == null) {
+                throw new IOException("No X509 trust manager in the trust store");
+            }
+
+            return new Entry(version, sslContext, trustManager, trustAll
+                    ? SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER
+                    : SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER);
+        } catch (GeneralSecurityException ex) {
+            throw new IOException("Error creating the SSL context", ex);
+        }
+    }
+
+    private static KeyStore loadTrustStore(File trustStoreFile, String trustStorePassword)
+            throws IOException, GeneralSecurityException {
+        if (trustStoreFile == null) {
+            // the JVM default trust store
+            return null;
+        }
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        InputStream in = new FileInputStream(trustStoreFile);
+        try {
+            keyStore.load(in, trustStorePassword == null || trustStorePassword.isEmpty() ? null : trustStorePassword.toCharArray());
+        } finally {
+            in.close();
+        }
+        return keyStore;
+    }
+
+    private static class Entry {
+        private final String version;
+        private final SSLContext sslContext;
+        private final X509TrustManager trustManager;
+        private final HostnameVerifier hostnameVerifier;
+        private final SSLSocketFactory socketFactory;
+        private final SSLIOSessionStrategy sessionStrategy;
+        private OkHttpClient http2Client;
+
+        private Entry(String version, SSLContext sslContext, X509TrustManager trustManager,
+                X509HostnameVerifier hostnameVerifier) {
+            this.version = version;
+            this.sslContext = sslContext;
+            this.trustManager = trustManager;
+            this.hostnameVerifier = hostnameVerifier;
+            // all share the context, and so the session cache
+            this.socketFactory = new SSLSocketFactory(sslContext, hostnameVerifier);
+            this.sessionStrategy = new SSLIOSessionStrategy(sslContext, hostnameVerifier);
+        }
+
+        private synchronized OkHttpClient getHttp2Client() {
+            if (http2Client == null) {
+                // no timeout unless the request sets one, as the HTTP/1.1 clients
+                http2Client = new OkHttpClient.Builder()
+                        .sslSocketFactory(sslContext.getSocketFactory(), trustManager)
+                        .hostnameVerifier(hostnameVerifier)
+                        .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                        .connectionPool(new ConnectionPool(HTTP2_MAX_IDLE_CONNECTIONS, HTTP2_KEEP_ALIVE, TimeUnit.MINUTES))
+                        .connectTimeout(0, TimeUnit.MILLISECONDS)
+                        .readTimeout(0, TimeUnit.MILLISECONDS)
+                        .writeTimeout(0, TimeUnit.MILLISECONDS)
+                        .build();
+            }
+            return http2Client;
+        }
+
+        /**
+         * Closes the idle connections of the entry replaced, those in use are closed once released.
+         */
+        private synchronized void release() {
+            if (http2Client != null) {
+                http2Client.connectionPool().evictAll();
+            }
+        }
+    }
+
+    private static class TrustAllManager implements X509TrustManager {
+
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
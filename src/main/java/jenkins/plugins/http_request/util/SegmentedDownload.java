@@ -0,0 +1,286 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Downloads a body as several ranges at once, each asked on a connection of
+ * its own and written at its place in the file, which is preallocated
+ * to the length of the body.
+ * <p>
+ * The first range is read from the response which announced the body, the
+ * others are asked with {@code Range} and {@code If-Range} headers, so a body
+ * which changes in the meantime fails the download instead of mixing versions.
+ * A range cut short is asked again from where it stopped, up to the given
+ * number of times. A failed download deletes the file, as what its
+ * ranges left unwritten can't be told from the body.
+ */
+class SegmentedDownload {
+
+    /**
+     * A range smaller than this isn't worth a connection of its own.
+     */
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final HttpRequestBase request;
+    private final HttpResponse response;
+    private final ResumableDownload.Sender sender;
+    private final int segments;
+    private final int maxResumes;
+    private final PrintStream logger;
+    private final long length;
+    private final String validator;
+
+    private final AtomicLong received = new AtomicLong();
+    private long reported;
+    private volatile boolean cancelled;
+
+    /**
+     * @param response whose body is downloaded, see {@link #check(HttpResponse)}
+     * @param sender called by several threads at once
+     */
+    SegmentedDownload(File file, HttpRequestBase request, HttpResponse response, ResumableDownload.Sender sender,
+            int segments, int maxResumes, PrintStream logger) {
+        this.file = file;
+        this.request = request;
+        this.response = response;
+        this.sender = sender;
+        this.segments = segments;
+        this.maxResumes = maxResumes;
+        this.logger = logger;
+        this.length = response.getEntity().getContentLength();
+        this.validator = ResumableDownload.getValidator(response);
+    }
+
+    /**
+     * @return why the body of the response can't be downloaded in segments, null when it can
+     */
+    static String check(HttpResponse response) {
+        HttpEntity entity = response.getEntity();
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || entity == null) {
+            return "there is no body";
+        }
+        Header acceptRanges = response.getFirstHeader("Accept-Ranges");
+        if (acceptRanges == null || !acceptRanges.getValue().toLowerCase().contains("bytes")) {
+            return "the server doesn't accept ranges";
+        }
+        if (entity.getContentLength() < 2 * MIN_SEGMENT_SIZE) {
+            return "its length is unknown or too small";
+        }
+        if (entity.getContentEncoding() != null && !"identity".equalsIgnoreCase(entity.getContentEncoding().getValue())) {
+            return "it is compressed";
+        }
+        if (ResumableDownload.getValidator(response) == null) {
+            return "the response has no ETag nor Last-Modified header";
+        }
+        return null;
+    }
+
+    /**
+     * @return the length of the body written
+     */
+    long transfer() throws IOException, InterruptedException {
+        long segmentSize = Math.max(MIN_SEGMENT_SIZE, (length + segments - 1) / segments);
+        int count = (int) ((length + segmentSize - 1) / segmentSize);
+        logger.println(String.format("Downloading %d bytes to %s in %d segments", length, file.getName(), count));
+        reported = System.currentTimeMillis();
+
+        List<Segment> ranges = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(count - 1,
+                new NamingThreadFactory(new DaemonThreadFactory(), "SegmentedDownload"));
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw"); FileChannel channel = out.getChannel()) {
+            out.setLength(length);
+            for (long start = 0; start < length; start += segmentSize) {
+                ranges.add(new Segment(ranges.size() + 1, start, Math.min(length, start + segmentSize) - 1, channel));
+            }
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Segment segment : ranges.subList(1, ranges.size())) {
+                futures.add(executor.submit(segment));
+            }
+            // the first range is the start of the body already received
+            ranges.get(0).call();
+            for (Future<Void> future : futures) {
+                await(future);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            cancelled = true;
+            for (Segment segment : ranges) {
+                segment.abort();
+            }
+            // closed by now, the segments still running fail to write
+            if (file.exists() && !file.delete()) {
+                logger.println("Failed to delete the partial download " + file);
+            }
+            throw e;
+        } finally {
+            executor.shutdownNow();
+            // the rest of the first response isn't read
+            request.abort();
+        }
+        return length;
+    }
+
+    private void await(Future<?> future) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                return;
+            } catch (TimeoutException e) {
+                if (request.isAborted()) {
+                    // by the total timeout
+                    throw new InterruptedIOException("Request aborted");
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof InterruptedException) {
+                    throw (InterruptedException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    private synchronized void reportProgress() {
+        long now = System.currentTimeMillis();
+        if (now - reported >= PROGRESS_INTERVAL) {
+            reported = now;
+            long size = received.get();
+            logger.println(String.format("Downloaded %d of %d bytes to %s (%d%%)",
+                    size, length, file.getName(), size * 100 / length));
+        }
+    }
+
+    /**
+     * The bytes from start to end, inclusive.
+     */
+    private class Segment implements Callable<Void> {
+
+        private final int index;
+        private final long start;
+        private final long end;
+        private final FileChannel channel;
+        private volatile HttpRequestBase current;
+
+        Segment(int index, long start, long end, FileChannel channel) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.channel = channel;
+        }
+
+        void abort() {
+            HttpRequestBase rangeRequest = current;
+            if (rangeRequest != null) {
+                rangeRequest.abort();
+            }
+        }
+
+        @Override
+        public Void call() throws IOException, InterruptedException {
+            long position = start;
+            int resumes = 0;
+            HttpResponse rangeResponse = index == 1 ? response : null;
+            current = index == 1 ? request : null;
+            while (true) {
+                try {
+                    if (rangeResponse == null) {
+                        rangeResponse = send(position);
+                    }
+                    position = copy(rangeResponse.getEntity().getContent(), channel, position);
+                    if (position <= end) {
+                        throw new IOException("Premature end of segment " + index + " at byte " + position);
+                    }
+                    if (current != request) {
+                        // lets the connection be reused
+                        rangeResponse.getEntity().getContent().close();
+                    }
+                    return null;
+                } catch (IOException e) {
+                    // the request is aborted by its total timeout or an interruption
+                    if (cancelled || request.isAborted() || current.isAborted() || resumes >= maxResumes) {
+                        throw e;
+                    }
+                    // the first response is left unread, aborting it would abort the request
+                    if (current != request) {
+                        current.abort();
+                    }
+                    resumes++;
+                    logger.println(String.format("Segment %d of %s interrupted at byte %d with %s(%s), resuming (%d of %d)",
+                            index, file.getName(), position, e.getClass().getName(), e.getMessage(), resumes, maxResumes));
+                    rangeResponse = null;
+                }
+            }
+        }
+
+        private HttpResponse send(long position) throws IOException, InterruptedException {
+            HttpGet get = new HttpGet(request.getURI());
+            get.setHeaders(request.getAllHeaders());
+            get.setHeader("Range", "bytes=" + position + "-" + end);
+            get.setHeader("If-Range", validator);
+            current = get;
+            if (cancelled) {
+                throw new InterruptedIOException("Download cancelled");
+            }
+            HttpResponse rangeResponse = sender.send(get);
+            if (rangeResponse.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT
+                    || ResumableDownload.getRangeStart(rangeResponse) != position) {
+                get.abort();
+                // not resumed, the body changed or the server stopped serving ranges
+                cancelled = true;
+                throw new IOException("Asked bytes " + position + "-" + end + " of " + file.getName() + " but got "
+                        + rangeResponse.getStatusLine() + " " + rangeResponse.getFirstHeader("Content-Range"));
+            }
+            return rangeResponse;
+        }
+
+        /**
+         * @return the position following the last byte written
+         */
+        private long copy(InputStream in, FileChannel channel, long position) throws IOException {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            int read;
+            while (position <= end && (read = in.read(bytes, 0, (int) Math.min(bytes.length, end - position + 1))) != -1) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, read);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                received.addAndGet(read);
+                reportProgress();
+            }
+            return position;
+        }
+    }
+}
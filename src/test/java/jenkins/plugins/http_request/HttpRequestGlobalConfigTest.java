@@ -0,0 +1,66 @@
+package jenkins.plugins.http_request;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import jenkins.plugins.http_request.util.HttpRequestRouteLimit;
+
+public class HttpRequestGlobalConfigTest extends HttpRequestTestBase {
+
+    @Test
+    public void savedRouteLimitIsAppliedToThePool() throws Exception {
+        HttpRequestGlobalConfig config = HttpRequestGlobalConfig.get();
+        config.setMaxConnectionsPerRoute(5);
+        config.setRouteLimits(Collections.singletonList(new HttpRequestRouteLimit("http://example.com:8080", 3)));
+        j.configRoundtrip();
+
+        PoolingClientConnectionManager pool = (PoolingClientConnectionManager) config.getConnectionManager();
+        HttpRoute limited = new HttpRoute(new HttpHost("example.com", 8080, "http"), null, false);
+        assertEquals(3, pool.getMaxPerRoute(limited));
+        HttpRoute other = new HttpRoute(new HttpHost("example.org", 8080, "http"), null, false);
+        assertEquals(5, pool.getMaxPerRoute(other));
+
+        // removing the limit restores the default of the route
+        config.setRouteLimits(Collections.<HttpRequestRouteLimit>emptyList());
+        j.configRoundtrip();
+        assertEquals(5, pool.getMaxPerRoute(limited));
+    }
+
+    @Test
+    public void leaseTimeoutFailsTheRequestWhenThePoolIsExhausted() throws Exception {
+        HttpRequestGlobalConfig config = HttpRequestGlobalConfig.get();
+        config.setMaxConnectionsPerRoute(1);
+        config.setConnectionLeaseTimeout(1);
+        j.configRoundtrip();
+
+        HttpHost target = start();
+        String url = "http://localhost:" + target.getPort() + "/doGET";
+
+        DefaultHttpClient client = config.createHttpClient();
+        // keeps the only connection of the route leased
+        HttpResponse leased = client.execute(new HttpGet(url));
+        try {
+            config.createHttpClient().execute(new HttpGet(url));
+            fail("the request should wait no longer than the lease timeout");
+        } catch (ConnectionPoolTimeoutException expected) {
+        } finally {
+            EntityUtils.consume(leased.getEntity());
+        }
+
+        // the released connection serves the next request
+        HttpResponse response = config.createHttpClient().execute(new HttpGet(url));
+        assertEquals(allIsWellMessage, EntityUtils.toString(response.getEntity()));
+    }
+}
@@ -1,17 +1,31 @@
 package jenkins.plugins.http_request;
 
+import hudson.model.Label;
 import hudson.model.Result;
 import jenkins.plugins.http_request.auth.BasicDigestAuthentication;
 import jenkins.plugins.http_request.auth.FormAuthentication;
+import jenkins.plugins.http_request.util.CircuitBreaker;
 import jenkins.plugins.http_request.util.HttpRequestNameValuePair;
 import jenkins.plugins.http_request.util.RequestAction;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
@@ -21,15 +35,30 @@ import org.apache.http.util.EntityUtils;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assume;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import javax.net.ssl.SSLParameters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -61,10 +90,7 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
     }
 
     @Test
-    public void canDetectActualContent() throws Exception {
-        // Setup the expected pattern
-        String findMe = allIsWellMessage;
-
+    public void asyncGetTest() throws Exception {
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
@@ -72,8 +98,13 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/doGET',\n" +
-            "    consoleLogResponseBody: true\n",
+            "parallel first: {\n" +
+            "    def response = httpRequest url:'"+baseURL+"/doGET', async: true\n" +
+            "    println('First status: '+response.status)\n" +
+            "}, second: {\n" +
+            "    def response = httpRequest url:'"+baseURL+"/doGET', async: true\n" +
+            "    println('Second response: '+response.content)\n" +
+            "}\n",
             true));
 
         // Execute the build
@@ -81,11 +112,12 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
 
         // Check expectations
         j.assertBuildStatusSuccess(run);
-        j.assertLogContains(findMe,run);
+        j.assertLogContains("First status: 200",run);
+        j.assertLogContains("Second response: "+allIsWellMessage,run);
     }
 
     @Test
-    public void badContentFailsTheBuild() throws Exception {
+    public void batchGetTest() throws Exception {
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
@@ -93,26 +125,26 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/doGET',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    validResponseContent: 'bad content'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "def batch = httpRequestBatch maxParallelism: 2, requests: [\n" +
+            "    [url: '"+baseURL+"/doGET'],\n" +
+            "    [url: '"+baseURL+"/doGET'],\n" +
+            "    [url: '"+baseURL+"/doPOST', httpMode: 'POST']\n" +
+            "]\n" +
+            "println('Count: '+batch.responses.size())\n" +
+            "println('Status: '+batch.responses[2].status)\n",
             true));
 
         // Execute the build
         WorkflowRun run = proj.scheduleBuild2(0).get();
 
         // Check expectations
-        j.assertBuildStatus(Result.FAILURE, run);
-        String s = FileUtils.readFileToString(run.getLogFile());
-        Pattern p = Pattern.compile("Fail: Response with length \\d+ doesn't contain 'bad content'");
-        Matcher m = p.matcher(s);
-        assertTrue(m.find());
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("Count: 3",run);
+        j.assertLogContains("Status: 200",run);
     }
 
     @Test
-    public void responseMatchAcceptedMimeType() throws Exception {
+    public void batchFailsWhenARequestFails() throws Exception {
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
@@ -120,23 +152,22 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/doGET',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    acceptType: 'TEXT_PLAIN'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "httpRequestBatch requests: [\n" +
+            "    [url: '"+baseURL+"/doGET'],\n" +
+            "    [url: '"+baseURL+"/invalidStatusCode']\n" +
+            "]\n",
             true));
 
         // Execute the build
         WorkflowRun run = proj.scheduleBuild2(0).get();
 
         // Check expectations
-        j.assertBuildStatusSuccess(run);
-        j.assertLogContains(allIsWellMessage,run);
+        j.assertBuildStatus(Result.FAILURE, run);
+        j.assertLogContains("Fail: 1 of 2 requests failed",run);
     }
 
     @Test
-    public void responseDoesNotMatchAcceptedMimeTypeDoesNotFailTheBuild() throws Exception {
+    public void failedBatchKeepsTheCompletedResponses() throws Exception {
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
@@ -144,11 +175,16 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/doGET',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    acceptType: 'TEXT_HTML'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "try {\n" +
+            "    httpRequestBatch requests: [\n" +
+            "        [url: '"+baseURL+"/doGET'],\n" +
+            "        [url: '"+baseURL+"/invalidStatusCode']\n" +
+            "    ]\n" +
+            "} catch (e) {\n" +
+            "    println('First: '+e.result.responses[0].content)\n" +
+            "    println('Second: '+e.result.responses[1])\n" +
+            "    println('Failed: '+(e.result.failures[1] != null))\n" +
+            "}\n",
             true));
 
         // Execute the build
@@ -156,31 +192,25 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
 
         // Check expectations
         j.assertBuildStatusSuccess(run);
-        j.assertLogContains(allIsWellMessage,run);
+        j.assertLogContains("First: "+allIsWellMessage,run);
+        j.assertLogContains("Second: null",run);
+        j.assertLogContains("Failed: true",run);
     }
 
     @Test
-    public void doAllRequestTypes() throws Exception {
-        for (HttpMode mode: HttpMode.values()) {
-            doRequest(mode);
-        }
-    }
-
-    public void doRequest(final HttpMode mode) throws Exception {
-        //JenkinsRule doesn't support PATCH
-        if (mode == HttpMode.PATCH) return;
+    public void responseIsStreamedToOutputFile() throws Exception {
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
 
         // Configure the build
-        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj"+mode.toString());
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/do"+mode.toString()+"',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    httpMode: '"+mode.toString()+"'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "node {\n" +
+            "    def response = httpRequest url:'"+baseURL+"/doGET', outputFile: 'response.txt'\n" +
+            "    println('Status: '+response.status)\n" +
+            "    println('File: '+readFile('response.txt'))\n" +
+            "}\n",
             true));
 
         // Execute the build
@@ -188,14 +218,12 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
 
         // Check expectations
         j.assertBuildStatusSuccess(run);
-
-        if (mode == HttpMode.HEAD) return;
-
-        j.assertLogContains(allIsWellMessage,run);
+        j.assertLogContains("Status: 200",run);
+        j.assertLogContains("File: "+allIsWellMessage,run);
     }
 
     @Test
-    public void invalidResponseCodeFailsTheBuild() throws Exception {
+    public void outputFileIsCheckedAsItIsWritten() throws Exception {
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
@@ -203,34 +231,48 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
-            "    consoleLogResponseBody: true\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "node {\n" +
+            "    def response = httpRequest url:'"+baseURL+"/doGET', outputFile: 'response.txt', validResponseContent: '"+allIsWellMessage+"'\n" +
+            "    println('Response: '+response.content)\n" +
+            "    println('File: '+readFile('response.txt'))\n" +
+            "}\n",
             true));
 
         // Execute the build
         WorkflowRun run = proj.scheduleBuild2(0).get();
 
         // Check expectations
-        j.assertBuildStatus(Result.FAILURE, run);
-        j.assertLogContains("Throwing status 400 for test",run);
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("Response: null",run);
+        j.assertLogContains("File: "+allIsWellMessage,run);
     }
 
     @Test
-    public void invalidResponseCodeIsAccepted() throws Exception {
+    public void largeResponseIsSpilledToBuildDirectory() throws Exception {
         // Prepare the server
+        final String largeContent = StringUtils.repeat("0123456789", 500) + "END";
+        this.serverBootstrap.registerHandler("/largeResponse", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                response.setEntity(new StringEntity(largeContent, ContentType.TEXT_PLAIN));
+            }
+        });
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
 
+        // Keep at most 1 KB in memory
+        HttpRequestGlobalConfig.get().setResponseMemoryThreshold(1);
+
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    validResponseCodes: '100:599'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "def response = httpRequest '"+baseURL+"/largeResponse'\n" +
+            "println('Length: '+response.content.length())\n" +
+            "println('Ends with END: '+response.content.endsWith('END'))\n",
             true));
 
         // Execute the build
@@ -238,11 +280,19 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
 
         // Check expectations
         j.assertBuildStatusSuccess(run);
-        j.assertLogContains("Throwing status 400 for test",run);
+        j.assertLogContains("Length: "+largeContent.length(),run);
+        j.assertLogContains("Ends with END: true",run);
+        File[] spilled = run.getRootDir().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("http-response");
+            }
+        });
+        assertEquals(1, spilled.length);
     }
 
     @Test
-    public void reverseRangeFailsTheBuild() throws Exception {
+    public void lazyContentIsNotDownloadedWhenUnused() throws Exception {
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
@@ -250,11 +300,10 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    validResponseCodes: '599:100'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "def response = httpRequest url:'"+baseURL+"/doGET', lazyContent: true\n" +
+            "println('Status: '+response.status)\n" +
+            "println('Content-Type: '+response.headers['Content-Type'])\n" +
+            "println('Response: '+response.content)\n",
             true));
 
         // Execute the build
@@ -262,127 +311,256 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
 
         // Check expectations
         j.assertBuildStatus(Result.FAILURE, run);
+        j.assertLogContains("Status: 200",run);
+        j.assertLogContains("Content-Type: [text/plain",run);
+        j.assertLogContains("IllegalStateException: The response body was not downloaded, as lazyContent is set",run);
+        j.assertLogNotContains("Response: ",run);
     }
 
     @Test
-    public void notANumberRangeValueFailsTheBuild() throws Exception {
+    public void notModifiedResponseIsServedFromCache() throws Exception {
         // Prepare the server
+        final List<String> requestedEtags = new ArrayList<>();
+        this.serverBootstrap.registerHandler("/cached", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                org.apache.http.Header ifNoneMatch = request.getFirstHeader("If-None-Match");
+                requestedEtags.add(ifNoneMatch == null ? null : ifNoneMatch.getValue());
+                response.setHeader("ETag", "\"v1\"");
+                if (ifNoneMatch != null && "\"v1\"".equals(ifNoneMatch.getValue())) {
+                    response.setStatusCode(304);
+                } else {
+                    response.setEntity(new StringEntity(allIsWellMessage, ContentType.TEXT_PLAIN));
+                }
+            }
+        });
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
 
+        HttpRequestGlobalConfig.get().setCacheEnabled(true);
+
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    validResponseCodes: 'text'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "def response = httpRequest '"+baseURL+"/cached'\n" +
+            "println('Status: '+response.status)\n" +
+            "println('Response: '+response.content)\n",
             true));
 
-        // Execute the build
+        // Execute the builds
+        j.assertBuildStatusSuccess(proj.scheduleBuild2(0).get());
         WorkflowRun run = proj.scheduleBuild2(0).get();
 
         // Check expectations
-        j.assertBuildStatus(Result.FAILURE, run);
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("Using cached response, it was not modified",run);
+        j.assertLogContains("Status: 200",run);
+        j.assertLogContains("Response: "+allIsWellMessage,run);
+        assertEquals(2, requestedEtags.size());
+        assertEquals("\"v1\"", requestedEtags.get(1));
     }
 
     @Test
-    public void rangeWithTextFailsTheBuild() throws Exception {
-        // Prepare the server
+    public void unavailableServerIsRetried() throws Exception {
+        // Prepare the server, it is unavailable for the first two requests
+        final AtomicInteger requests = new AtomicInteger();
+        this.serverBootstrap.registerHandler("/unavailable", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                if (requests.incrementAndGet() <= 2) {
+                    response.setStatusCode(503);
+                    response.setHeader("Retry-After", "0");
+                } else {
+                    response.setEntity(new StringEntity(allIsWellMessage, ContentType.TEXT_PLAIN));
+                }
+            }
+        });
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
 
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    validResponseCodes: '1:text'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "def response = httpRequest url:'"+baseURL+"/unavailable', maxAttempts: 3\n" +
+            "println('Status: '+response.status)\n" +
+            "println('Attempts: '+response.attempts)\n",
             true));
 
         // Execute the build
         WorkflowRun run = proj.scheduleBuild2(0).get();
 
         // Check expectations
-        j.assertBuildStatus(Result.FAILURE, run);
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("Attempt 1 of 3 failed",run);
+        j.assertLogContains("Status: 200",run);
+        j.assertLogContains("Attempts: 3",run);
+        assertEquals(3, requests.get());
     }
 
     @Test
-    public void invalidRangeFailsTheBuild() throws Exception {
+    public void postIsNotRetriedUnlessForced() throws Exception {
         // Prepare the server
+        final AtomicInteger requests = new AtomicInteger();
+        this.serverBootstrap.registerHandler("/unavailablePost", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                requests.incrementAndGet();
+                response.setStatusCode(503);
+            }
+        });
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
 
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    validResponseCodes: '1:2:3'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "httpRequest url:'"+baseURL+"/unavailablePost', httpMode: 'POST', maxAttempts: 3, validResponseCodes: '100:599'\n" +
+            "httpRequest url:'"+baseURL+"/unavailablePost', httpMode: 'POST', maxAttempts: 3, retryDelay: 0,\n" +
+            "    retryNonIdempotent: true, validResponseCodes: '100:599'\n",
             true));
 
         // Execute the build
         WorkflowRun run = proj.scheduleBuild2(0).get();
 
         // Check expectations
-        j.assertBuildStatus(Result.FAILURE, run);
+        j.assertBuildStatusSuccess(run);
+        assertEquals(4, requests.get());
     }
 
     @Test
-    public void sendAllContentTypes() throws Exception {
-        for (MimeType mimeType : MimeType.values()) {
-            sendContentType(mimeType);
-        }
-    }
-
-    public void sendContentType(final MimeType mimeType) throws Exception {
+    public void circuitBreakerRejectsRequestsToFailingHost() throws Exception {
         // Prepare the server
+        final AtomicInteger requests = new AtomicInteger();
+        this.serverBootstrap.registerHandler("/failing", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                requests.incrementAndGet();
+                response.setStatusCode(500);
+            }
+        });
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
 
+        HttpRequestGlobalConfig config = HttpRequestGlobalConfig.get();
+        config.setCircuitBreakerWindowSize(4);
+        config.setCircuitBreakerOpenDuration(600);
+        config.setCircuitBreakerEnabled(true);
+
         // Configure the build
-        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj"+mimeType.toString());
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/incoming_"+mimeType.toString()+"',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    contentType: '"+mimeType.toString()+"'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "for (int i = 0; i < 5; i++) {\n" +
+            "    def response = httpRequest url:'"+baseURL+"/failing', validResponseCodes: '100:599'\n" +
+            "    println('Status: '+response.status)\n" +
+            "}\n",
             true));
 
         // Execute the build
         WorkflowRun run = proj.scheduleBuild2(0).get();
 
         // Check expectations
-        j.assertBuildStatusSuccess(run);
-        j.assertLogContains(allIsWellMessage,run);
+        j.assertBuildStatus(Result.FAILURE, run);
+        j.assertLogContains("Status: 500",run);
+        j.assertLogContains("Circuit breaker open for http://localhost:" + target.getPort(),run);
+        assertEquals(2, requests.get());
+        assertEquals(CircuitBreaker.State.OPEN, config.getCircuitBreakers().get(0).getState());
+
+        config.setCircuitBreakerEnabled(false);
     }
 
     @Test
-    public void sendAllAcceptTypes() throws Exception {
-        for (MimeType mimeType : MimeType.values()) {
-            sendAcceptType(mimeType);
-        }
+    public void totalTimeoutAbortsSlowResponse() throws Exception {
+        // Prepare the server, it sends the body slowly
+        this.serverBootstrap.registerHandler("/slowBody", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                response.setEntity(new AbstractHttpEntity() {
+                    @Override
+                    public boolean isRepeatable() {
+                        return false;
+                    }
+
+                    @Override
+                    public long getContentLength() {
+                        return -1;
+                    }
+
+                    @Override
+                    public InputStream getContent() {
+                        throw new UnsupportedOperationException();
+                    }
+
+                    @Override
+                    public void writeTo(OutputStream outstream) throws IOException {
+                        for (int i = 0; i < 50; i++) {
+                            outstream.write(allIsWellMessage.getBytes("UTF-8"));
+                            outstream.flush();
+                            try {
+                                Thread.sleep(100);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                    }
+
+                    @Override
+                    public boolean isStreaming() {
+                        return true;
+                    }
+                });
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build, each packet arrives within the read timeout
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "httpRequest url:'"+baseURL+"/slowBody', readTimeout: 1000, totalTimeout: 1000\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+        j.assertLogContains("didn't complete within its total timeout of 1000 ms",run);
     }
 
-    public void sendAcceptType(final MimeType mimeType) throws Exception {
+    @Test
+    public void canDetectActualContent() throws Exception {
+        // Setup the expected pattern
+        String findMe = allIsWellMessage;
+
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
 
         // Configure the build
-        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj"+mimeType.toString());
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/accept_"+mimeType.toString()+"',\n" +
-            "    consoleLogResponseBody: true,\n" +
-            "    acceptType: '"+mimeType.toString()+"'\n" +
-            "println('Status: '+response.getStatus())\n" +
-            "println('Response: '+response.getContent())\n",
+            "def response = httpRequest url:'"+baseURL+"/doGET',\n" +
+            "    consoleLogResponseBody: true\n",
             true));
 
         // Execute the build
@@ -390,11 +568,11 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
 
         // Check expectations
         j.assertBuildStatusSuccess(run);
-        j.assertLogContains(allIsWellMessage,run);
+        j.assertLogContains(findMe,run);
     }
 
     @Test
-    public void timeoutFailsTheBuild() throws Exception {
+    public void badContentFailsTheBuild() throws Exception {
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
@@ -402,8 +580,9 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/timeout',\n" +
-            "    timeout: 2\n" +
+            "def response = httpRequest url:'"+baseURL+"/doGET',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    validResponseContent: 'bad content'\n" +
             "println('Status: '+response.getStatus())\n" +
             "println('Response: '+response.getContent())\n",
             true));
@@ -413,10 +592,14 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
 
         // Check expectations
         j.assertBuildStatus(Result.FAILURE, run);
+        String s = FileUtils.readFileToString(run.getLogFile());
+        Pattern p = Pattern.compile("Fail: Response with length \\d+ doesn't contain 'bad content'");
+        Matcher m = p.matcher(s);
+        assertTrue(m.find());
     }
 
     @Test
-    public void canDoCustomHeaders() throws Exception {
+    public void responseMatchAcceptedMimeType() throws Exception {
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
@@ -424,8 +607,9 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/customHeaders',\n" +
-            "    customHeaders: [[name: 'customHeader', value: 'value1'],[name: 'customHeader', value: 'value2']]\n" +
+            "def response = httpRequest url:'"+baseURL+"/doGET',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    acceptType: 'TEXT_PLAIN'\n" +
             "println('Status: '+response.getStatus())\n" +
             "println('Response: '+response.getContent())\n",
             true));
@@ -434,11 +618,12 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         WorkflowRun run = proj.scheduleBuild2(0).get();
 
         // Check expectations
-        j.assertBuildStatus(Result.SUCCESS, run);
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains(allIsWellMessage,run);
     }
 
     @Test
-    public void nonExistentBasicAuthFailsTheBuild() throws Exception {
+    public void responseDoesNotMatchAcceptedMimeTypeDoesNotFailTheBuild() throws Exception {
         // Prepare the server
         final HttpHost target = start();
         final String baseURL = "http://localhost:" + target.getPort();
@@ -446,8 +631,9 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/basicAuth',\n" +
-            "    authentication: 'invalid'\n" +
+            "def response = httpRequest url:'"+baseURL+"/doGET',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    acceptType: 'TEXT_HTML'\n" +
             "println('Status: '+response.getStatus())\n" +
             "println('Response: '+response.getContent())\n",
             true));
@@ -456,14 +642,315 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         WorkflowRun run = proj.scheduleBuild2(0).get();
 
         // Check expectations
-        j.assertBuildStatus(Result.FAILURE, run);
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains(allIsWellMessage,run);
     }
 
     @Test
-    public void canDoBasicDigestAuthentication() throws Exception {
-        // Prepare the server
-        final HttpHost target = start();
-        final String baseURL = "http://localhost:" + target.getPort();
+    public void doAllRequestTypes() throws Exception {
+        for (HttpMode mode: HttpMode.values()) {
+            doRequest(mode);
+        }
+    }
+
+    public void doRequest(final HttpMode mode) throws Exception {
+        //JenkinsRule doesn't support PATCH
+        if (mode == HttpMode.PATCH) return;
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj"+mode.toString());
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/do"+mode.toString()+"',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    httpMode: '"+mode.toString()+"'\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+
+        if (mode == HttpMode.HEAD) return;
+
+        j.assertLogContains(allIsWellMessage,run);
+    }
+
+    @Test
+    public void invalidResponseCodeFailsTheBuild() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
+            "    consoleLogResponseBody: true\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+        j.assertLogContains("Throwing status 400 for test",run);
+    }
+
+    @Test
+    public void invalidResponseCodeIsAccepted() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    validResponseCodes: '100:599'\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("Throwing status 400 for test",run);
+    }
+
+    @Test
+    public void reverseRangeFailsTheBuild() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    validResponseCodes: '599:100'\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+    }
+
+    @Test
+    public void notANumberRangeValueFailsTheBuild() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    validResponseCodes: 'text'\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+    }
+
+    @Test
+    public void rangeWithTextFailsTheBuild() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    validResponseCodes: '1:text'\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+    }
+
+    @Test
+    public void invalidRangeFailsTheBuild() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/invalidStatusCode',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    validResponseCodes: '1:2:3'\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+    }
+
+    @Test
+    public void sendAllContentTypes() throws Exception {
+        for (MimeType mimeType : MimeType.values()) {
+            sendContentType(mimeType);
+        }
+    }
+
+    public void sendContentType(final MimeType mimeType) throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj"+mimeType.toString());
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/incoming_"+mimeType.toString()+"',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    contentType: '"+mimeType.toString()+"'\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains(allIsWellMessage,run);
+    }
+
+    @Test
+    public void sendAllAcceptTypes() throws Exception {
+        for (MimeType mimeType : MimeType.values()) {
+            sendAcceptType(mimeType);
+        }
+    }
+
+    public void sendAcceptType(final MimeType mimeType) throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj"+mimeType.toString());
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/accept_"+mimeType.toString()+"',\n" +
+            "    consoleLogResponseBody: true,\n" +
+            "    acceptType: '"+mimeType.toString()+"'\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains(allIsWellMessage,run);
+    }
+
+    @Test
+    public void timeoutFailsTheBuild() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/timeout',\n" +
+            "    timeout: 2\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+    }
+
+    @Test
+    public void canDoCustomHeaders() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/customHeaders',\n" +
+            "    customHeaders: [[name: 'customHeader', value: 'value1'],[name: 'customHeader', value: 'value2']]\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.SUCCESS, run);
+    }
+
+    @Test
+    public void nonExistentBasicAuthFailsTheBuild() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/basicAuth',\n" +
+            "    authentication: 'invalid'\n" +
+            "println('Status: '+response.getStatus())\n" +
+            "println('Response: '+response.getContent())\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+    }
+
+    @Test
+    public void canDoBasicDigestAuthentication() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
 
         // Prepare the authentication
         List<BasicDigestAuthentication> bda = new ArrayList<BasicDigestAuthentication>();
@@ -487,6 +974,56 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         j.assertBuildStatus(Result.SUCCESS, run);
     }
 
+    @Test
+    public void digestChallengeIsReusedPreemptively() throws Exception {
+        // Prepare the server, it challenges any request without Digest credentials
+        final AtomicInteger challenges = new AtomicInteger();
+        final List<String> nonceCounts = new ArrayList<String>();
+        this.serverBootstrap.registerHandler("/digestAuth", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                org.apache.http.Header authorization = request.getFirstHeader("Authorization");
+                if (authorization == null || !authorization.getValue().startsWith("Digest ")) {
+                    challenges.incrementAndGet();
+                    response.setStatusCode(401);
+                    response.setHeader("WWW-Authenticate", "Digest realm=\"test\", nonce=\"dcd98b7102dd2f0e\", qop=\"auth\"");
+                    return;
+                }
+                Matcher nonceCount = Pattern.compile("nc=(\\w+)").matcher(authorization.getValue());
+                nonceCounts.add(nonceCount.find() ? nonceCount.group(1) : null);
+                response.setEntity(new StringEntity(allIsWellMessage, ContentType.TEXT_PLAIN));
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Prepare the authentication
+        List<BasicDigestAuthentication> bda = new ArrayList<BasicDigestAuthentication>();
+        bda.add(new BasicDigestAuthentication("digestKey","username1","password1"));
+        HttpRequestGlobalConfig.get().setBasicDigestAuthentications(bda);
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "for (int i = 0; i < 3; i++) {\n" +
+            "    httpRequest url:'"+baseURL+"/digestAuth', authentication: 'digestKey'\n" +
+            "}\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+        assertEquals(1, challenges.get());
+        assertEquals(3, nonceCounts.size());
+        assertEquals("00000003", nonceCounts.get(2));
+    }
+
     @Test
     public void canDoFormAuthentication() throws Exception {
         // Prepare the server
@@ -494,33 +1031,95 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         final String baseURL = "http://localhost:" + target.getPort();
 
         // Prepare the authentication
-        List<HttpRequestNameValuePair> params = new ArrayList<HttpRequestNameValuePair>();
-        params.add(new HttpRequestNameValuePair("param1","value1"));
-        params.add(new HttpRequestNameValuePair("param2","value2"));
-
-        RequestAction action = new RequestAction(new URL(baseURL+"/reqAction"),HttpMode.GET,null,params);
+        List<HttpRequestNameValuePair> params = new ArrayList<HttpRequestNameValuePair>();
+        params.add(new HttpRequestNameValuePair("param1","value1"));
+        params.add(new HttpRequestNameValuePair("param2","value2"));
+
+        RequestAction action = new RequestAction(new URL(baseURL+"/reqAction"),HttpMode.GET,null,params);
+        List<RequestAction> actions = new ArrayList<RequestAction>();
+        actions.add(action);
+
+        FormAuthentication formAuth = new FormAuthentication("keyname",actions);
+        List<FormAuthentication> formAuthList = new ArrayList<FormAuthentication>();
+        formAuthList.add(formAuth);
+
+        // Store the configuration
+        HttpRequestGlobalConfig.get().setFormAuthentications(formAuthList);
+
+        // Prepare HttpRequest
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/formAuth',\n" +
+            "    authentication: 'keyname'\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.SUCCESS, run);
+    }
+
+    @Test
+    public void formAuthenticationSessionIsReused() throws Exception {
+        // Prepare the server, it accepts the cookie of the last login only
+        final AtomicInteger logins = new AtomicInteger();
+        this.serverBootstrap.registerHandler("/sessionLogin", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                response.setHeader("Set-Cookie", "session=" + logins.incrementAndGet() + "; Path=/");
+            }
+        });
+        this.serverBootstrap.registerHandler("/sessionProtected", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                org.apache.http.Header cookie = request.getFirstHeader("Cookie");
+                if (cookie != null && cookie.getValue().contains("session=" + logins.get())) {
+                    response.setEntity(new StringEntity(allIsWellMessage, ContentType.TEXT_PLAIN));
+                } else {
+                    response.setStatusCode(401);
+                }
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Prepare the authentication
         List<RequestAction> actions = new ArrayList<RequestAction>();
-        actions.add(action);
-
-        FormAuthentication formAuth = new FormAuthentication("keyname",actions);
+        actions.add(new RequestAction(new URL(baseURL+"/sessionLogin"),HttpMode.GET,null,null));
+        final FormAuthentication formAuth = new FormAuthentication("sessionKey",actions);
         List<FormAuthentication> formAuthList = new ArrayList<FormAuthentication>();
         formAuthList.add(formAuth);
-
-        // Store the configuration
         HttpRequestGlobalConfig.get().setFormAuthentications(formAuthList);
 
-        // Prepare HttpRequest
+        // Configure the build
         WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
         proj.setDefinition(new CpsFlowDefinition(
-            "def response = httpRequest url:'"+baseURL+"/formAuth',\n" +
-            "    authentication: 'keyname'\n",
+            "httpRequest url:'"+baseURL+"/sessionProtected', authentication: 'sessionKey'\n" +
+            "httpRequest url:'"+baseURL+"/sessionProtected', authentication: 'sessionKey'\n",
             true));
 
-        // Execute the build
+        // Execute the builds, the server forgets the session before the second one
         WorkflowRun run = proj.scheduleBuild2(0).get();
+        j.assertBuildStatusSuccess(run);
+        assertEquals(1, logins.get());
+        j.assertLogContains("Reusing the login session of authentication: sessionKey",run);
+
+        logins.incrementAndGet();
+        run = proj.scheduleBuild2(0).get();
 
         // Check expectations
-        j.assertBuildStatus(Result.SUCCESS, run);
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("Login session of authentication sessionKey was rejected, logging in again",run);
+        assertEquals(3, logins.get());
     }
 
     @Test
@@ -641,4 +1240,505 @@ public class HttpRequestStepTest extends HttpRequestTestBase {
         j.assertBuildStatusSuccess(run);
         j.assertLogContains("Response: " + body, run);
     }
+
+    @Test
+    public void h2cFallsBackToHttp11() throws Exception {
+        // Prepare the server, it only speaks HTTP/1.1
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/doGET', protocol: 'H2C'\n" +
+            "println('Response: '+response.content)\n" +
+            "response = httpRequest url:'"+baseURL+"/doGET', protocol: 'H2C'\n" +
+            "println('Status: '+response.status)\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("falling back to HTTP/1.1", run);
+        j.assertLogContains("Response: " + allIsWellMessage, run);
+        j.assertLogContains("Status: 200", run);
+    }
+
+    @Test
+    public void h2cIsUsedWhenTheServerSpeaksIt() throws Exception {
+        // Prepare the server, it only speaks HTTP/2 without negotiation
+        MockWebServer server = new MockWebServer();
+        server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        server.enqueue(new MockResponse().setBody(allIsWellMessage));
+        server.start();
+        try {
+            // Configure the build
+            WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+            proj.setDefinition(new CpsFlowDefinition(
+                "def response = httpRequest url:'"+server.url("/doGET")+"', protocol: 'H2C'\n" +
+                "println('Response: '+response.content)\n",
+                true));
+
+            // Execute the build
+            WorkflowRun run = proj.scheduleBuild2(0).get();
+
+            // Check expectations
+            j.assertBuildStatusSuccess(run);
+            j.assertLogContains("HTTP/2.0 200", run);
+            j.assertLogContains("Response: " + allIsWellMessage, run);
+            j.assertLogNotContains("falling back to HTTP/1.1", run);
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void h2IsNegotiatedOverTls() throws Exception {
+        // ALPN is only in the JDK from Java 9, and Java 8 updates backporting it
+        try {
+            SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+        } catch (NoSuchMethodException e) {
+            Assume.assumeNoException(e);
+        }
+
+        // Prepare the server, it offers HTTP/2 with a self-signed certificate
+        HeldCertificate certificate = new HeldCertificate.Builder().addSubjectAlternativeName("localhost").build();
+        HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder().heldCertificate(certificate).build();
+        MockWebServer server = new MockWebServer();
+        server.useHttps(serverCertificates.sslSocketFactory(), false);
+        server.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        server.enqueue(new MockResponse().setBody(allIsWellMessage));
+        server.start();
+        HttpRequestGlobalConfig.get().setTrustAllCertificates(true);
+        try {
+            // Configure the build
+            WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+            proj.setDefinition(new CpsFlowDefinition(
+                "def response = httpRequest url:'"+server.url("/doGET")+"', protocol: 'HTTP_2'\n" +
+                "println('Response: '+response.content)\n",
+                true));
+
+            // Execute the build
+            WorkflowRun run = proj.scheduleBuild2(0).get();
+
+            // Check expectations
+            j.assertBuildStatusSuccess(run);
+            j.assertLogContains("HTTP/2.0 200", run);
+            j.assertLogContains("Response: " + allIsWellMessage, run);
+        } finally {
+            HttpRequestGlobalConfig.get().setTrustAllCertificates(false);
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void failedH2cPostIsNotSentAgain() throws Exception {
+        // Prepare the server, it speaks HTTP/2 without negotiation and drops the connection once the request is read
+        MockWebServer server = new MockWebServer();
+        server.setProtocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        server.enqueue(new MockResponse().setBody(allIsWellMessage));
+        server.start();
+        try {
+            // Configure the build
+            WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+            proj.setDefinition(new CpsFlowDefinition(
+                "def response = httpRequest httpMode: 'POST', requestBody: 'order', url:'"+server.url("/doPost")+"', protocol: 'H2C'\n" +
+                "println('Response: '+response.content)\n",
+                true));
+
+            // Execute the build
+            WorkflowRun run = proj.scheduleBuild2(0).get();
+
+            // Check expectations
+            j.assertBuildStatus(Result.FAILURE, run);
+            j.assertLogNotContains("falling back to HTTP/1.1", run);
+            j.assertLogNotContains("Response: " + allIsWellMessage, run);
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void requestAndResponseBodiesAreCompressed() throws Exception {
+        // Prepare the server, it echoes the gzipped request body in a gzipped response
+        this.serverBootstrap.registerHandler("/gzip", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                assertEquals("gzip", request.getFirstHeader("Content-Encoding").getValue());
+                assertTrue(request.getFirstHeader("Accept-Encoding").getValue().contains("gzip"));
+                HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+                String body;
+                try (InputStream in = new GZIPInputStream(entity.getContent())) {
+                    body = IOUtils.toString(in, "UTF-8");
+                }
+
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (OutputStream out = new GZIPOutputStream(compressed)) {
+                    out.write(("Echo: " + body).getBytes("UTF-8"));
+                }
+                response.setHeader("Content-Encoding", "gzip");
+                response.setEntity(new ByteArrayEntity(compressed.toByteArray(), ContentType.TEXT_PLAIN));
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "def response = httpRequest url:'"+baseURL+"/gzip', httpMode: 'POST', requestBody: '"+allIsWellMessage+"', compressRequestBody: true\n" +
+            "println('Response: '+response.content)\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("Request body is compressed with gzip", run);
+        j.assertLogContains("Response: Echo: " + allIsWellMessage, run);
+    }
+
+    @Test
+    public void requestIsRunOnTheAgent() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+        j.createOnlineSlave(Label.get("agent"));
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "node('agent') {\n" +
+            "    def response = httpRequest url:'"+baseURL+"/doGET', runOnAgent: true\n" +
+            "    println('Response: '+response.content)\n" +
+            "    httpRequest url:'"+baseURL+"/doGET', runOnAgent: true, outputFile: 'response.txt'\n" +
+            "    println('File: '+readFile('response.txt'))\n" +
+            "}\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("Running the request on the agent of the workspace", run);
+        j.assertLogContains("Response: " + allIsWellMessage, run);
+        j.assertLogContains("File: " + allIsWellMessage, run);
+    }
+
+    @Test
+    public void interruptedDownloadIsResumed() throws Exception {
+        // Prepare the server, it cuts the first response in the middle of the body
+        final String body = StringUtils.repeat("0123456789", 1000);
+        final AtomicInteger requests = new AtomicInteger();
+        this.serverBootstrap.registerHandler("/resumable", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                requests.incrementAndGet();
+                response.setHeader("ETag", "\"v1\"");
+                response.setHeader("Accept-Ranges", "bytes");
+                org.apache.http.Header range = request.getFirstHeader("Range");
+                if (range == null) {
+                    response.setEntity(new AbstractHttpEntity() {
+                        @Override
+                        public boolean isRepeatable() {
+                            return false;
+                        }
+
+                        @Override
+                        public long getContentLength() {
+                            return body.length();
+                        }
+
+                        @Override
+                        public InputStream getContent() {
+                            throw new UnsupportedOperationException();
+                        }
+
+                        @Override
+                        public void writeTo(OutputStream outstream) throws IOException {
+                            outstream.write(body.substring(0, body.length() / 2).getBytes("UTF-8"));
+                            outstream.flush();
+                            throw new IOException("Connection cut");
+                        }
+
+                        @Override
+                        public boolean isStreaming() {
+                            return true;
+                        }
+                    });
+                    return;
+                }
+                assertEquals("\"v1\"", request.getFirstHeader("If-Range").getValue());
+                int from = Integer.parseInt(range.getValue().replaceAll("bytes=(\\d+)-", "$1"));
+                response.setStatusCode(206);
+                response.setHeader("Content-Range", "bytes " + from + "-" + (body.length() - 1) + "/" + body.length());
+                response.setEntity(new StringEntity(body.substring(from)));
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "    def response = httpRequest url:'"+baseURL+"/resumable', outputFile: 'download.txt', maxResumes: 2\n" +
+            "    println('Status: '+response.status)\n" +
+            "    println('Same: '+(readFile('download.txt') == '0123456789' * 1000))\n" +
+            "    println('State left: '+fileExists('download.txt.resume'))\n" +
+            "}\n",
+            false));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("resuming (1 of 2)", run);
+        j.assertLogContains("Status: 200", run);
+        j.assertLogContains("Same: true", run);
+        j.assertLogContains("State left: false", run);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void partialDownloadIsKeptWhenTheRangeFails() throws Exception {
+        // Prepare the server, it fails the range asked
+        final AtomicInteger requests = new AtomicInteger();
+        this.serverBootstrap.registerHandler("/unavailable", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                requests.incrementAndGet();
+                assertEquals("bytes=5000-", request.getFirstHeader("Range").getValue());
+                response.setStatusCode(503);
+                response.setEntity(new StringEntity("Come back later", ContentType.TEXT_PLAIN));
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build, an earlier one left half of the body
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        String partial = StringUtils.repeat("0123456789", 500);
+        j.jenkins.getWorkspaceFor(proj).child("download.txt.download").write(partial, "UTF-8");
+        j.jenkins.getWorkspaceFor(proj).child("download.txt.resume").write("validator=\"v1\"\nlength=10000\n", "UTF-8");
+        proj.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "    httpRequest url:'"+baseURL+"/unavailable', outputFile: 'download.txt', maxResumes: 2\n" +
+            "}\n",
+            false));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+        j.assertLogContains("the partial download is kept", run);
+        assertEquals(1, requests.get());
+        assertEquals(partial, j.jenkins.getWorkspaceFor(proj).child("download.txt.download").readToString());
+        assertFalse(j.jenkins.getWorkspaceFor(proj).child("download.txt").exists());
+        assertTrue(j.jenkins.getWorkspaceFor(proj).child("download.txt.resume").exists());
+    }
+
+    @Test
+    public void invalidDownloadLeavesTheOutputFile() throws Exception {
+        // Prepare the server, the body is missing
+        this.serverBootstrap.registerHandler("/missing", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                response.setStatusCode(404);
+                response.setHeader("ETag", "\"v1\"");
+                response.setEntity(new StringEntity("Not here", ContentType.TEXT_PLAIN));
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build, an earlier one downloaded the file
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        j.jenkins.getWorkspaceFor(proj).child("download.txt").write(allIsWellMessage, "UTF-8");
+        proj.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "    httpRequest url:'"+baseURL+"/missing', outputFile: 'download.txt', maxResumes: 2\n" +
+            "}\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+        assertEquals(allIsWellMessage, j.jenkins.getWorkspaceFor(proj).child("download.txt").readToString());
+        assertFalse(j.jenkins.getWorkspaceFor(proj).child("download.txt.download").exists());
+        assertFalse(j.jenkins.getWorkspaceFor(proj).child("download.txt.resume").exists());
+    }
+
+    @Test
+    public void largeDownloadIsSegmented() throws Exception {
+        // Prepare the server, it serves ranges of a 3 MB body
+        final byte[] body = new byte[3 * 1024 * 1024];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i % 251);
+        }
+        final AtomicInteger rangeRequests = new AtomicInteger();
+        this.serverBootstrap.registerHandler("/segmented", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                response.setHeader("ETag", "\"v1\"");
+                response.setHeader("Accept-Ranges", "bytes");
+                org.apache.http.Header range = request.getFirstHeader("Range");
+                if (range == null) {
+                    response.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_OCTET_STREAM));
+                    return;
+                }
+                rangeRequests.incrementAndGet();
+                assertEquals("\"v1\"", request.getFirstHeader("If-Range").getValue());
+                Matcher matcher = Pattern.compile("bytes=(\\d+)-(\\d+)").matcher(range.getValue());
+                assertTrue(matcher.matches());
+                int from = Integer.parseInt(matcher.group(1));
+                int to = Integer.parseInt(matcher.group(2));
+                response.setStatusCode(206);
+                response.setHeader("Content-Range", "bytes " + from + "-" + to + "/" + body.length);
+                response.setEntity(new ByteArrayEntity(body, from, to - from + 1, ContentType.APPLICATION_OCTET_STREAM));
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "    def response = httpRequest url:'"+baseURL+"/segmented', outputFile: 'segments.bin', downloadSegments: 3\n" +
+            "    println('Status: '+response.status)\n" +
+            "}\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("in 3 segments", run);
+        j.assertLogContains("Status: 200", run);
+        assertEquals(2, rangeRequests.get());
+        try (InputStream in = j.jenkins.getWorkspaceFor(proj).child("segments.bin").read()) {
+            assertTrue(Arrays.equals(body, IOUtils.toByteArray(in)));
+        }
+    }
+
+    @Test
+    public void changedSegmentFailsTheDownload() throws Exception {
+        // Prepare the server, the body changes once its start is sent
+        final byte[] body = new byte[3 * 1024 * 1024];
+        final AtomicInteger requests = new AtomicInteger();
+        this.serverBootstrap.registerHandler("/changed", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                response.setHeader("ETag", requests.getAndIncrement() == 0 ? "\"v1\"" : "\"v2\"");
+                response.setHeader("Accept-Ranges", "bytes");
+                // If-Range doesn't match, the whole body is sent again
+                response.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_OCTET_STREAM));
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "    httpRequest url:'"+baseURL+"/changed', outputFile: 'segments.bin', downloadSegments: 3, maxResumes: 2\n" +
+            "}\n",
+            true));
+
+        // Execute the build
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, run);
+        j.assertLogContains("in 3 segments", run);
+        j.assertLogContains("but got HTTP/1.1 200 OK", run);
+        assertFalse(j.jenkins.getWorkspaceFor(proj).child("segments.bin").exists());
+        assertFalse(j.jenkins.getWorkspaceFor(proj).child("segments.bin.download").exists());
+        assertFalse(j.jenkins.getWorkspaceFor(proj).child("segments.bin.resume").exists());
+    }
+
+    @Test
+    public void downloadDigestIsVerified() throws Exception {
+        // Prepare the server, it sends the digest of the body
+        final byte[] body = StringUtils.repeat(allIsWellMessage, 100).getBytes("UTF-8");
+        final String digest = DigestUtils.sha256Hex(body);
+        this.serverBootstrap.registerHandler("/checksummed", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                assertEquals("identity", request.getFirstHeader("Accept-Encoding").getValue());
+                response.setHeader("Digest", "SHA-256=" + Base64.encodeBase64String(DigestUtils.sha256(body)));
+                response.setEntity(new ByteArrayEntity(body, ContentType.TEXT_PLAIN));
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Configure the build
+        WorkflowJob proj = j.jenkins.createProject(WorkflowJob.class, "proj");
+        proj.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "    def response = httpRequest url:'"+baseURL+"/checksummed', outputFile: 'body.txt', digestAlgorithm: 'SHA_256', expectedDigest: '"+digest+"'\n" +
+            "    println('Digest: '+response.digest)\n" +
+            "}\n",
+            true));
+        WorkflowJob wrongProj = j.jenkins.createProject(WorkflowJob.class, "wrongProj");
+        wrongProj.setDefinition(new CpsFlowDefinition(
+            "node {\n" +
+            "    httpRequest url:'"+baseURL+"/checksummed', outputFile: 'body.txt', digestAlgorithm: 'SHA_256', expectedDigest: '"+DigestUtils.sha256Hex("other")+"'\n" +
+            "}\n",
+            true));
+
+        // Execute the builds
+        WorkflowRun run = proj.scheduleBuild2(0).get();
+        WorkflowRun wrongRun = wrongProj.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(run);
+        j.assertLogContains("The digest matches the one sent by the server", run);
+        j.assertLogContains("Digest: " + digest, run);
+        j.assertBuildStatus(Result.FAILURE, wrongRun);
+        j.assertLogContains("Fail: the SHA-256 digest of the response body is " + digest, wrongRun);
+    }
 }
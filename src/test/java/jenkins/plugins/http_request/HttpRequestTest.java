@@ -1,27 +1,46 @@
 package jenkins.plugins.http_request;
 
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
 import hudson.model.Cause.UserIdCause;
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.model.ParametersAction;
 import hudson.model.Result;
 import hudson.model.StringParameterValue;
+import hudson.util.FormValidation;
 
+import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import jenkins.plugins.http_request.auth.BasicDigestAuthentication;
 import jenkins.plugins.http_request.auth.FormAuthentication;
+import jenkins.plugins.http_request.util.HttpRequestFormDataPart;
 import jenkins.plugins.http_request.util.HttpRequestNameValuePair;
 import jenkins.plugins.http_request.util.RequestAction;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.util.EntityUtils;
 
 import org.junit.Test;
+import org.jvnet.hudson.test.TestBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -98,6 +117,67 @@ public class HttpRequestTest extends HttpRequestTestBase {
         assertTrue(m.find());
     }
 
+    @Test
+    public void forbiddenContentFailsTheBuild() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Prepare HttpRequest
+        HttpRequest httpRequest = new HttpRequest(baseURL+"/doGET");
+        httpRequest.setInvalidResponseContent("Error\nis well");
+
+        // Run build
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(httpRequest);
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, build);
+        j.assertLogContains("Fail: Response contains 'is well'", build);
+    }
+
+    @Test
+    public void canMatchContentPatterns() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Prepare HttpRequest
+        HttpRequest httpRequest = new HttpRequest(baseURL+"/doGET");
+        httpRequest.setValidResponseContent("All");
+        httpRequest.setInvalidResponseContent("Error");
+        httpRequest.setValidResponsePatterns("^All\\s+is\n(is|was) well$");
+
+        // Run build
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(httpRequest);
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(build);
+    }
+
+    @Test
+    public void unmatchedContentPatternFailsTheBuild() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Prepare HttpRequest
+        HttpRequest httpRequest = new HttpRequest(baseURL+"/doGET");
+        httpRequest.setValidResponsePatterns("^well");
+
+        // Run build
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(httpRequest);
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, build);
+        j.assertLogContains("doesn't match '^well'", build);
+    }
+
     @Test
     public void responseMatchAcceptedMimeType() throws Exception {
         // Prepare the server
@@ -170,6 +250,53 @@ public class HttpRequestTest extends HttpRequestTestBase {
         j.assertLogContains(allIsWellMessage,build);
     }
 
+    @Test
+    public void cachedResponsesAreKeptApartByBuildParameters() throws Exception {
+        // Prepare the server, its responses stay fresh and echo the query
+        final AtomicInteger requests = new AtomicInteger();
+        this.serverBootstrap.registerHandler("/freshParameters", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                requests.incrementAndGet();
+                response.setHeader("Cache-Control", "max-age=600");
+                response.setEntity(new StringEntity("Query: " + request.getRequestLine().getUri(), ContentType.TEXT_PLAIN));
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        HttpRequestGlobalConfig.get().setCacheEnabled(true);
+
+        // Prepare HttpRequest
+        HttpRequest httpRequest = new HttpRequest(baseURL+"/freshParameters");
+        httpRequest.setConsoleLogResponseBody(true);
+        httpRequest.setPassBuildParameters(true);
+
+        // Run the builds
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(httpRequest);
+        FreeStyleBuild first = project.scheduleBuild2(0,
+            new UserIdCause(),
+            new ParametersAction(new StringParameterValue("foo","first"))
+        ).get();
+        FreeStyleBuild second = project.scheduleBuild2(0,
+            new UserIdCause(),
+            new ParametersAction(new StringParameterValue("foo","second"))
+        ).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(first);
+        j.assertLogContains("foo=first", first);
+        j.assertBuildStatusSuccess(second);
+        j.assertLogContains("foo=second", second);
+        j.assertLogNotContains("foo=first", second);
+        assertEquals(2, requests.get());
+    }
+
     @Test
     public void replaceParametersInRequestBody() throws Exception {
 
@@ -277,6 +404,94 @@ public class HttpRequestTest extends HttpRequestTestBase {
         j.assertLogContains(allIsWellMessage,build);
     }
 
+    @Test
+    public void canUploadFileAsRequestBody() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Prepare HttpRequest
+        HttpRequest httpRequest = new HttpRequest(baseURL+"/checkRequestBody");
+        httpRequest.setConsoleLogResponseBody(true);
+
+        // Activate uploadFile
+        httpRequest.setHttpMode(HttpMode.POST);
+        httpRequest.setUploadFile("upload.txt");
+
+        // Run build
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                build.getWorkspace().child("upload.txt").write("TestRequestBody", "UTF-8");
+                return true;
+            }
+        });
+        project.getBuildersList().add(httpRequest);
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains(allIsWellMessage,build);
+    }
+
+    @Test
+    public void canUploadFormData() throws Exception {
+        // Prepare the server
+        this.serverBootstrap.registerHandler("/checkFormData", new HttpRequestHandler() {
+            @Override
+            public void handle(
+                    final org.apache.http.HttpRequest request,
+                    final HttpResponse response,
+                    final HttpContext context
+            ) throws HttpException, IOException {
+                assertTrue(request.getFirstHeader("Content-Type").getValue().startsWith("multipart/form-data; boundary="));
+                assertEquals("chunked", request.getFirstHeader("Transfer-Encoding").getValue());
+                String body = EntityUtils.toString(((HttpEntityEnclosingRequest) request).getEntity());
+                assertTrue(body.contains("name=\"tag\""));
+                assertTrue(body.contains("trunk"));
+                assertTrue(body.contains("name=\"report\"; filename=\"upload.txt\""));
+                assertTrue(body.contains("TestRequestBody"));
+                response.setEntity(new StringEntity(allIsWellMessage, ContentType.TEXT_PLAIN));
+            }
+        });
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Prepare HttpRequest
+        HttpRequest httpRequest = new HttpRequest(baseURL+"/checkFormData");
+        httpRequest.setConsoleLogResponseBody(true);
+
+        // Activate formData, with a build parameter and a workspace file
+        httpRequest.setHttpMode(HttpMode.POST);
+        HttpRequestFormDataPart tag = new HttpRequestFormDataPart("tag");
+        tag.setValue("$Tag");
+        HttpRequestFormDataPart report = new HttpRequestFormDataPart("report");
+        report.setUploadFile("upload.txt");
+        httpRequest.setFormData(Arrays.asList(tag, report));
+
+        // Run build
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                build.getWorkspace().child("upload.txt").write("TestRequestBody", "UTF-8");
+                return true;
+            }
+        });
+        project.getBuildersList().add(httpRequest);
+        FreeStyleBuild build = project.scheduleBuild2(0,
+            new UserIdCause(),
+            new ParametersAction(new StringParameterValue("Tag","trunk"))
+        ).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(build);
+        j.assertLogContains(allIsWellMessage,build);
+    }
+
     @Test
     public void doNotPassRequestBodyWhenMethodIsGet() throws Exception {
         // Prepare the server
@@ -564,6 +779,36 @@ public class HttpRequestTest extends HttpRequestTestBase {
         assertTrue(m.find());
     }
 
+    @Test
+    public void outputFileIsNotWrittenWhenTheResponseIsInvalid() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Prepare HttpRequest
+        HttpRequest invalidStatus = new HttpRequest(baseURL+"/invalidStatusCode");
+        invalidStatus.setOutputFile("status.txt");
+        HttpRequest invalidContent = new HttpRequest(baseURL+"/doGET");
+        invalidContent.setOutputFile("content.txt");
+        invalidContent.setValidResponseContent("not in the response");
+
+        // Run build
+        FreeStyleProject statusProject = j.createFreeStyleProject();
+        statusProject.getBuildersList().add(invalidStatus);
+        FreeStyleBuild statusBuild = statusProject.scheduleBuild2(0).get();
+        FreeStyleProject contentProject = j.createFreeStyleProject();
+        contentProject.getBuildersList().add(invalidContent);
+        FreeStyleBuild contentBuild = contentProject.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatus(Result.FAILURE, statusBuild);
+        assertFalse(statusBuild.getWorkspace().child("status.txt").exists());
+        assertFalse(statusBuild.getWorkspace().child("status.txt.part").exists());
+        j.assertBuildStatus(Result.FAILURE, contentBuild);
+        assertFalse(contentBuild.getWorkspace().child("content.txt").exists());
+        assertFalse(contentBuild.getWorkspace().child("content.txt.part").exists());
+    }
+
     @Test
     public void timeoutFailsTheBuild() throws Exception {
         // Prepare the server
@@ -686,6 +931,28 @@ public class HttpRequestTest extends HttpRequestTestBase {
         j.assertBuildStatus(Result.SUCCESS, build);
     }
 
+    @Test
+    public void authenticationsAreIndexedByKeyName() throws Exception {
+        // Prepare the authentications
+        List<BasicDigestAuthentication> bda = new ArrayList<BasicDigestAuthentication>();
+        for (int i = 0; i < 150; i++) {
+            bda.add(new BasicDigestAuthentication("keyname"+i,"username"+i,"password"+i));
+        }
+        bda.add(new BasicDigestAuthentication("keyname7","other","other"));
+        HttpRequestGlobalConfig.get().setBasicDigestAuthentications(bda);
+
+        // Check expectations
+        assertEquals("username120", ((BasicDigestAuthentication) HttpRequestGlobalConfig.get().getAuthentication("keyname120")).getUserName());
+        assertEquals("username7", ((BasicDigestAuthentication) HttpRequestGlobalConfig.get().getAuthentication("keyname7")).getUserName());
+        assertEquals(FormValidation.Kind.ERROR, HttpRequest.DescriptorImpl.validateKeyName("keyname7").kind);
+        assertEquals(FormValidation.Kind.OK, HttpRequest.DescriptorImpl.validateKeyName("keyname8").kind);
+        assertEquals(FormValidation.Kind.ERROR, HttpRequest.DescriptorImpl.checkAuthentication("missing").kind);
+        assertTrue(HttpRequest.DescriptorImpl.isAuthenticationListTooLong());
+        assertEquals(Arrays.asList("keyname14", "keyname140", "keyname141", "keyname142", "keyname143",
+                "keyname144", "keyname145", "keyname146", "keyname147", "keyname148", "keyname149"),
+                HttpRequest.DescriptorImpl.autoCompleteAuthentication("KEYNAME14").getValues());
+    }
+
     @Test
     public void canDoFormAuthentication() throws Exception {
         // Prepare the server
@@ -791,4 +1058,38 @@ public class HttpRequestTest extends HttpRequestTestBase {
         j.assertBuildStatus(Result.FAILURE, build);
         j.assertLogContains("Authentication 'non-existent' doesn't exist anymore",build);
     }
+
+    @Test
+    public void pooledConnectionsAreReleased() throws Exception {
+        // Prepare the server
+        final HttpHost target = start();
+        final String baseURL = "http://localhost:" + target.getPort();
+
+        // Prepare the authentication
+        List<HttpRequestNameValuePair> params = new ArrayList<HttpRequestNameValuePair>();
+        params.add(new HttpRequestNameValuePair("param1","value1"));
+        params.add(new HttpRequestNameValuePair("param2","value2"));
+
+        RequestAction action = new RequestAction(new URL(baseURL+"/reqAction"),HttpMode.GET,null,params);
+        List<RequestAction> actions = new ArrayList<RequestAction>();
+        actions.add(action);
+
+        FormAuthentication formAuth = new FormAuthentication("keyname",actions);
+        List<FormAuthentication> formAuthList = new ArrayList<FormAuthentication>();
+        formAuthList.add(formAuth);
+        HttpRequestGlobalConfig.get().setFormAuthentications(formAuthList);
+
+        // More requests than the pool allows per route, a leaked connection times out the lease
+        FreeStyleProject project = j.createFreeStyleProject();
+        for (int i = 0; i < HttpRequestGlobalConfig.DEFAULT_MAX_CONNECTIONS_PER_ROUTE + 5; i++) {
+            HttpRequest httpRequest = new HttpRequest(baseURL+"/formAuth");
+            httpRequest.setAuthentication("keyname");
+            httpRequest.setTimeout(5);
+            project.getBuildersList().add(httpRequest);
+        }
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        // Check expectations
+        j.assertBuildStatusSuccess(build);
+    }
 }
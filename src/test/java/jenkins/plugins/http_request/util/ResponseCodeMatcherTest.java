@@ -0,0 +1,55 @@
+package jenkins.plugins.http_request.util;
+
+import com.google.common.collect.Ranges;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCodeMatcherTest {
+
+    @Test
+    public void matchesTheCodesOfTheSpecification() {
+        ResponseCodeMatcher matcher = ResponseCodeMatcher.compile("200:204, 404");
+        assertTrue(matcher.matches(200));
+        assertTrue(matcher.matches(204));
+        assertTrue(matcher.matches(404));
+        assertFalse(matcher.matches(205));
+        assertFalse(matcher.matches(500));
+    }
+
+    @Test
+    public void returnsTheFirstRangeContainingTheCode() {
+        ResponseCodeMatcher matcher = ResponseCodeMatcher.compile("400:499,404,100:399");
+        assertEquals(Ranges.closed(400, 499), matcher.getMatchingRange(404));
+        assertEquals(Ranges.closed(100, 399), matcher.getMatchingRange(302));
+        assertNull(matcher.getMatchingRange(500));
+    }
+
+    @Test
+    public void matchesCodesOutsideOfTheUsualOnes() {
+        ResponseCodeMatcher matcher = ResponseCodeMatcher.compile("0:99,550:999");
+        assertEquals(Ranges.closed(0, 99), matcher.getMatchingRange(42));
+        assertEquals(Ranges.closed(550, 999), matcher.getMatchingRange(599));
+        assertEquals(Ranges.closed(550, 999), matcher.getMatchingRange(700));
+        assertNull(matcher.getMatchingRange(100));
+        assertNull(matcher.getMatchingRange(1000));
+    }
+
+    @Test
+    public void nullOrBlankSpecificationIsTheDefaultOne() {
+        ResponseCodeMatcher matcher = ResponseCodeMatcher.compile(null);
+        assertSame(ResponseCodeMatcher.compile("100:399"), matcher);
+        assertSame(matcher, ResponseCodeMatcher.compile("  "));
+        assertTrue(matcher.matches(399));
+        assertFalse(matcher.matches(400));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongSpecificationIsRejected() {
+        ResponseCodeMatcher.compile("300:200");
+    }
+}
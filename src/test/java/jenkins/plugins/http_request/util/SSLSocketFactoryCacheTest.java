@@ -0,0 +1,66 @@
+package jenkins.plugins.http_request.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.KeyStore;
+
+import okhttp3.OkHttpClient;
+import okhttp3.tls.HeldCertificate;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SSLSocketFactoryCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sameConfigurationSharesTheFactory() throws Exception {
+        assertSame(SSLSocketFactoryCache.get(true, null, null), SSLSocketFactoryCache.get(true, null, null));
+        assertSame(SSLSocketFactoryCache.getHttp2Client(true, null, null), SSLSocketFactoryCache.getHttp2Client(true, null, null));
+        assertNotSame(SSLSocketFactoryCache.get(true, null, null), SSLSocketFactoryCache.get(false, null, null));
+    }
+
+    @Test
+    public void replacedTrustStoreIsLoadedAgain() throws Exception {
+        File trustStore = folder.newFile("truststore.jks");
+        writeTrustStore(trustStore, "changeit");
+        String path = trustStore.getAbsolutePath();
+
+        org.apache.http.conn.ssl.SSLSocketFactory factory = SSLSocketFactoryCache.get(false, path, "changeit");
+        OkHttpClient client = SSLSocketFactoryCache.getHttp2Client(false, path, "changeit");
+        assertSame(factory, SSLSocketFactoryCache.get(false, path, "changeit"));
+
+        writeTrustStore(trustStore, "changeit");
+        trustStore.setLastModified(trustStore.lastModified() + 2000);
+        org.apache.http.conn.ssl.SSLSocketFactory reloaded = SSLSocketFactoryCache.get(false, path, "changeit");
+        assertNotSame(factory, reloaded);
+        assertNotSame(client, SSLSocketFactoryCache.getHttp2Client(false, path, "changeit"));
+        assertSame(reloaded, SSLSocketFactoryCache.get(false, path, "changeit"));
+    }
+
+    @Test
+    public void changedPasswordIsLoadedAgain() throws Exception {
+        File trustStore = folder.newFile("truststore.jks");
+        writeTrustStore(trustStore, "changeit");
+        String path = trustStore.getAbsolutePath();
+
+        org.apache.http.conn.ssl.SSLSocketFactory factory = SSLSocketFactoryCache.get(false, path, "changeit");
+        // the password is only checked when one is given
+        assertNotSame(factory, SSLSocketFactoryCache.get(false, path, null));
+    }
+
+    private static void writeTrustStore(File file, String password) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setCertificateEntry("server", new HeldCertificate.Builder().build().certificate());
+        try (OutputStream out = new FileOutputStream(file)) {
+            keyStore.store(out, password.toCharArray());
+        }
+    }
+}